@@ -6,6 +6,7 @@ import framework.observer.Handler;
 import framework.observer.Message;
 import framework.web.context.AsyncActionContext;
 import framework.web.handler.RequestHandler;
+import framework.web.handler.RequestRoute;
 
 import java.io.File;
 
@@ -15,6 +16,11 @@ import java.io.File;
  */
 public class FileHandler extends RequestHandler {
 
+    private static final RequestRoute route = new RequestRoute.Builder()
+            .setIsFileAction(false) // 排除 post multipart upload
+            .addAct("file_download")
+            .build();
+
     private AsyncActionContext requestContext;
 
     @Override
@@ -29,8 +35,12 @@ public class FileHandler extends RequestHandler {
 
     @Override
     protected boolean checkIsMyJob(AsyncActionContext asyncActionContext) {
-        if( asyncActionContext.isFileAction() ) return false; // 排除 post multipart upload
-        return ( "file_download".equalsIgnoreCase(asyncActionContext.getParameters().get("act")) );
+        return route.match(asyncActionContext);
+    }
+
+    @Override
+    public RequestRoute getRoute() {
+        return route;
     }
 
     private void process_request() {
@@ -61,9 +61,11 @@ public class ParameterHandler extends RequestHandler {
                     params.addProperty(entry.getKey(), entry.getValue());
                 }
                 {
-                    JsonObject parseObj = new Gson().fromJson(requestContext.getRequestTextContent(), JsonObject.class);
-                    for(Map.Entry<String, JsonElement> entry : parseObj.entrySet()) {
-                        params.add(entry.getKey(), entry.getValue());
+                    JsonObject parseObj = requestContext.getRequestJsonObject();
+                    if(null != parseObj) {
+                        for(Map.Entry<String, JsonElement> entry : parseObj.entrySet()) {
+                            params.add(entry.getKey(), entry.getValue());
+                        }
                     }
                 }
                 obj.add("params", params);
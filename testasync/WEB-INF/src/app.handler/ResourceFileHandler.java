@@ -7,6 +7,8 @@ import framework.observer.Message;
 import framework.setting.PathContext;
 import framework.web.context.AsyncActionContext;
 import framework.web.handler.RequestHandler;
+import framework.web.resource.StaticResource;
+import framework.web.resource.StaticResourceCacheStatic;
 import jakarta.servlet.http.HttpServletResponse;
 
 import java.io.File;
@@ -55,16 +57,6 @@ public class ResourceFileHandler extends RequestHandler {
         {
             // path 本身已具有根斜線，只需接上 path 即可
             File file = Paths.get(static_value.project_dir.getPath() + path).toFile();
-            if (!file.exists()) {
-                response404(new Handler() {
-                    @Override
-                    public void handleMessage(Message m) {
-                        super.handleMessage(m);
-                        requestContext.complete();
-                    }
-                });
-                return;
-            }
             String fileMIME = null;
             {
                 // 在 HTML5 中，text/javascript 已被棄用，官方建議使用 application/javascript 代替
@@ -86,6 +78,30 @@ public class ResourceFileHandler extends RequestHandler {
                     return;
                 }
             }
+            // 小型資源由記憶體快取輸出，Range 請求及超過快取上限的檔案仍由檔案串流輸出
+            if(null == requestContext.getHttpRequest().getHeader("Range")) {
+                StaticResource resource = StaticResourceCacheStatic.getInstance().get(file, fileMIME);
+                if(null != resource) {
+                    requestContext.outputResourceToResponse(resource, new Handler() {
+                        @Override
+                        public void handleMessage(Message m) {
+                            super.handleMessage(m);
+                            requestContext.complete();
+                        }
+                    });
+                    return;
+                }
+            }
+            if (!file.exists()) {
+                response404(new Handler() {
+                    @Override
+                    public void handleMessage(Message m) {
+                        super.handleMessage(m);
+                        requestContext.complete();
+                    }
+                });
+                return;
+            }
             requestContext.outputFileToResponse(file, file.getName(), fileMIME, false, new Handler() {
                 @Override
                 public void handleMessage(Message m) {
@@ -4,17 +4,22 @@ import framework.observer.Handler;
 import framework.observer.Message;
 import framework.web.context.AsyncActionContext;
 import framework.web.handler.RequestHandler;
+import framework.web.handler.RequestRoute;
 import framework.web.session.service.SessionServiceStatic;
 
+/**
+ * 無狀態 Handler 範例：不在欄位中保存 AsyncActionContext，所有請求共用同一個實例
+ */
 public class SessionHandler extends RequestHandler {
 
-    private AsyncActionContext requestContext = null;
+    private static final RequestRoute route = new RequestRoute.Builder()
+            .addAct("session")
+            .build();
 
     @Override
     public void startup(AsyncActionContext asyncActionContext) {
         if(checkIsMyJob(asyncActionContext)) {
-            this.requestContext = asyncActionContext;
-            processRequest();
+            processRequest(asyncActionContext);
         } else {
             this.passToNext(asyncActionContext);
         }
@@ -22,10 +27,20 @@ public class SessionHandler extends RequestHandler {
 
     @Override
     protected boolean checkIsMyJob(AsyncActionContext asyncActionContext) {
-        return "session".equalsIgnoreCase(asyncActionContext.getParameters().get("act"));
+        return route.match(asyncActionContext);
     }
 
-    private void processRequest() {
+    @Override
+    public RequestRoute getRoute() {
+        return route;
+    }
+
+    @Override
+    public boolean isStateless() {
+        return true;
+    }
+
+    private void processRequest(AsyncActionContext requestContext) {
         String session_size = String.valueOf(SessionServiceStatic.getInstance().getUserMap().size());
         requestContext.printToResponse(session_size, new Handler(){
             @Override
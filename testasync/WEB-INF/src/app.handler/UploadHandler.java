@@ -6,6 +6,7 @@ import framework.observer.Message;
 import framework.setting.PathContext;
 import framework.web.context.AsyncActionContext;
 import framework.web.handler.RequestHandler;
+import framework.web.handler.RequestRoute;
 import framework.web.multipart.FileItem;
 import framework.web.multipart.FileItemList;
 
@@ -17,6 +18,10 @@ import java.util.Map;
  */
 public class UploadHandler extends RequestHandler {
 
+    private static final RequestRoute route = new RequestRoute.Builder()
+            .setIsFileAction(true)
+            .build();
+
     private AsyncActionContext requestContext;
 
     @Override
@@ -31,7 +36,12 @@ public class UploadHandler extends RequestHandler {
 
     @Override
     protected boolean checkIsMyJob(AsyncActionContext asyncActionContext) {
-        return asyncActionContext.isFileAction();
+        return route.match(asyncActionContext);
+    }
+
+    @Override
+    public RequestRoute getRoute() {
+        return route;
     }
 
     private void processRequest() {
@@ -1,10 +1,20 @@
 package app.listener;
 
 import app.handler.*;
+import framework.bytebuf.ByteBufferPoolStatic;
+import framework.database.StatementCacheServiceStatic;
+import framework.file.FileFinder;
+import framework.file.TempFileServiceStatic;
+import framework.thread.ThreadPoolStatic;
+import framework.web.context.CompressionServiceStatic;
 import framework.web.executor.WebAppServicePoolStatic;
+import framework.web.multipart.UploadLimit;
+import framework.web.resource.StaticResourceCacheStatic;
 import jakarta.servlet.ServletContextEvent;
 import jakarta.servlet.ServletContextListener;
 
+import java.io.File;
+
 /**
  * webapp main program entry point
  * modularization load request handler class
@@ -15,6 +25,10 @@ public class AppContextListener implements ServletContextListener {
     @Override
     public void contextInitialized(ServletContextEvent sce) {
         ServletContextListener.super.contextInitialized(sce);
+        // 請求執行緒模式：cached（預設）, bounded, virtual（JDK 21+）
+        {
+            ThreadPoolStatic.setMode(ThreadPoolStatic.MODE_CACHED);
+        }
         {
             WebAppServicePoolStatic.getInstance().addHandler(new PageHandler());
             WebAppServicePoolStatic.getInstance().addHandler(new ResourceFileHandler());
@@ -23,11 +37,63 @@ public class AppContextListener implements ServletContextListener {
             WebAppServicePoolStatic.getInstance().addHandler(new ParameterHandler());
             WebAppServicePoolStatic.getInstance().addHandler(new SessionHandler());
         }
+        // 有宣告 getRoute() 的 Handler 以路由索引直接派發，其餘 Handler 仍依責任鏈順序判斷
+        {
+            WebAppServicePoolStatic.getInstance().setRouteEnabled(true);
+            WebAppServicePoolStatic.getInstance().compileRoutes();
+        }
+        // 請求預設的逾時時間（ms），0 表示無限制，個別 Handler 可由 RequestRoute.setTimeout() 覆寫
+        {
+            WebAppServicePoolStatic.getInstance().setDefaultTimeout(0);
+        }
+        // 全域上傳限制，個別路由可由 RequestRoute.Builder.setUploadLimit() 覆寫
+        {
+            WebAppServicePoolStatic.getInstance().setUploadLimit(new UploadLimit.Builder()
+                    .setMaxRequestSize(512L * 1024 * 1024)
+                    .setMaxPartSize(512L * 1024 * 1024)
+                    .setMaxFieldSize(1024 * 1024)
+                    .setMaxPartCount(100)
+                    .build());
+        }
+        // 請求讀寫共用的緩衝區大小，除錯時可開啟 setLeakDetection 找出未歸還的緩衝區
+        {
+            ByteBufferPoolStatic.getInstance().setChunkSize(16 * 1024);
+            ByteBufferPoolStatic.getInstance().setLeakDetection(false);
+        }
+        // 靜態資源記憶體快取，監看網站目錄的檔案變動以使快取失效
+        {
+            StaticResourceCacheStatic.getInstance().setMaxCacheSize(32 * 1024 * 1024);
+            StaticResourceCacheStatic.getInstance().setMaxEntrySize(1024 * 1024);
+            File project_dir = new FileFinder.Builder().build().find("WEB-INF").getParentFile();
+            StaticResourceCacheStatic.getInstance().watch(project_dir);
+        }
+        // 回應內容壓縮（gzip / deflate），僅壓縮 minSize 以上的文字類內容
+        {
+            CompressionServiceStatic.getInstance().setEnabled(true);
+            CompressionServiceStatic.getInstance().setMinSize(1024);
+            CompressionServiceStatic.getInstance().setLevel(6);
+        }
+        // 請求內容不超過 memoryThreshold 時保留於記憶體中；
+        // 請求暫存檔於請求結束時刪除，另定時清除超過存活時間的孤兒暫存檔
+        {
+            TempFileServiceStatic.getInstance().setMemoryThreshold(64 * 1024);
+            TempFileServiceStatic.getInstance().setMaxAge(60 * 60 * 1000);
+            TempFileServiceStatic.getInstance().setSweepInterval(10 * 60 * 1000);
+            TempFileServiceStatic.getInstance().startSweeper();
+        }
+        // 每個資料庫連接快取的 PreparedStatement 數量上限
+        {
+            StatementCacheServiceStatic.getInstance().setEnabled(true);
+            StatementCacheServiceStatic.getInstance().setMaxSize(64);
+        }
     }
 
     @Override
     public void contextDestroyed(ServletContextEvent sce) {
         ServletContextListener.super.contextDestroyed(sce);
+        StaticResourceCacheStatic.getInstance().shutdown();
+        TempFileServiceStatic.getInstance().shutdown();
+        StatementCacheServiceStatic.getInstance().clear();
     }
 
 }
@@ -1,7 +1,7 @@
 package app.websocket;
 
-import com.google.gson.Gson;
 import com.google.gson.JsonObject;
+import framework.text.GsonServiceStatic;
 import jakarta.websocket.*;
 import jakarta.websocket.server.ServerEndpoint;
 
@@ -44,7 +44,7 @@ public class AppWebSocket {
             JsonObject obj = new JsonObject();
             obj.addProperty("status", "connect_success");
             obj.addProperty("msg_zht", "連接成功");
-            session.getAsyncRemote().sendText( new Gson().toJson(obj) );
+            session.getAsyncRemote().sendText( GsonServiceStatic.getInstance().getDefault().toJson(obj) );
         }
     }
 
@@ -1,10 +1,12 @@
 package app.websocket;
 
-import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 import framework.observer.Handler;
 import framework.observer.Message;
+import framework.text.GsonServiceStatic;
 import framework.thread.ThreadPoolStatic;
+import framework.web.multipart.UploadProgress;
+import framework.web.multipart.UploadProgressServiceStatic;
 import jakarta.websocket.Session;
 
 import java.lang.ref.WeakReference;
@@ -26,7 +28,7 @@ public class WebSocketService {
         JsonObject msgObj = null;
         {
             try {
-                msgObj = new Gson().fromJson(message, JsonObject.class);
+                msgObj = GsonServiceStatic.getInstance().getDefault().fromJson(message, JsonObject.class);
             } catch (Exception e) {
                 // e.printStackTrace();
             }
@@ -45,11 +47,23 @@ public class WebSocketService {
                         if(null == WebSocketChannelList.getChannel("_viewer")) WebSocketChannelList.addChannel("_viewer", new WebSocketChannel());
                         WebSocketChannelList.getChannel("_viewer").addSession(sessionID, new WeakReference<>( webSocketSession ).get());
                     } break;
+                    case "upload_progress": {
+                        // 訂閱上傳進度，upload_id 與上傳網址的 query string 相同
+                        String upload_id = msgObj.has("upload_id") ? msgObj.get("upload_id").getAsString() : null;
+                        if(null == upload_id || upload_id.isEmpty()) {
+                            JsonObject obj = new JsonObject();
+                            obj.addProperty("status", "fail");
+                            obj.addProperty("msg_zht", "請輸入 upload_id");
+                            webSocketSession.getAsyncRemote().sendText( GsonServiceStatic.getInstance().getDefault().toJson(obj) );
+                            break;
+                        }
+                        pushUploadProgress(new WeakReference<>( webSocketSession ).get(), upload_id, 0);
+                    } break;
                     default: {
                         JsonObject obj = new JsonObject();
                         obj.addProperty("status", "fail");
                         obj.addProperty("msg_zht", "請輸入正確的指令");
-                        webSocketSession.getAsyncRemote().sendText( new Gson().toJson(obj) );
+                        webSocketSession.getAsyncRemote().sendText( GsonServiceStatic.getInstance().getDefault().toJson(obj) );
                     } break;
                 }
             } else {
@@ -62,6 +76,40 @@ public class WebSocketService {
         }
     }
 
+    /**
+     * 定時推送上傳進度直到上傳結束或 WebSocket 關閉，
+     * 訂閱時上傳可能尚未開始，等待 UPLOAD_WAIT_LIMIT 次仍無進度時停止
+     */
+    private static final long UPLOAD_PUSH_INTERVAL = 500;
+    private static final int UPLOAD_WAIT_LIMIT = 20;
+
+    private static void pushUploadProgress(Session webSocketSession, String upload_id, int wait_count) {
+        if(null == webSocketSession || !webSocketSession.isOpen()) return;
+        UploadProgress progress = UploadProgressServiceStatic.getInstance().get(upload_id);
+        if(null == progress) {
+            if(wait_count >= UPLOAD_WAIT_LIMIT) {
+                JsonObject obj = new JsonObject();
+                obj.addProperty("status", "fail");
+                obj.addProperty("msg_zht", "查無上傳進度");
+                obj.addProperty("upload_id", upload_id);
+                webSocketSession.getAsyncRemote().sendText( GsonServiceStatic.getInstance().getDefault().toJson(obj) );
+                return;
+            }
+            ThreadPoolStatic.schedule(() -> pushUploadProgress(webSocketSession, upload_id, wait_count + 1), UPLOAD_PUSH_INTERVAL);
+            return;
+        }
+        JsonObject obj = progress.toJsonObject();
+        obj.addProperty("cmd", "upload_progress");
+        try {
+            webSocketSession.getAsyncRemote().sendText( GsonServiceStatic.getInstance().getDefault().toJson(obj) );
+        } catch (Exception e) {
+            // e.printStackTrace();
+            return;
+        }
+        if(progress.isFinished()) return;
+        ThreadPoolStatic.schedule(() -> pushUploadProgress(webSocketSession, upload_id, 0), UPLOAD_PUSH_INTERVAL);
+    }
+
     /**
      * 由於 caddy, nginx, tomcat servlet container 機制，
      * 會因 timeout 自動切斷 WebSocket 連接，
@@ -88,7 +136,7 @@ public class WebSocketService {
             // 確認是使用中的 socket session
             try {
                 if (null != wsSession && wsSession.isOpen()) {
-                    wsSession.getAsyncRemote().sendText(new Gson().toJson(obj));
+                    wsSession.getAsyncRemote().sendText(GsonServiceStatic.getInstance().getDefault().toJson(obj));
                 }
             } catch (Exception e) {
                 // e.printStackTrace();
@@ -0,0 +1,214 @@
+package framework.bytebuf;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 依大小分級（4 KiB ~ 1 MiB，2 的次方）的共用 ByteBuffer Pool，
+ * 提供 AsyncReadListener、AsyncWriteListener 等每個請求都需要的 I/O 緩衝區重複使用
+ * -
+ * ServletInputStream / ServletOutputStream 只接受 byte[]，所以 acquire() 取得 heap buffer（可取得 array()）；
+ * 僅與 FileChannel 等 NIO channel 溝通的用途可以 acquireDirect() 取得 direct buffer，兩者分別管理
+ * -
+ * acquire() 取得的 ByteBuffer 使用完畢後必須以 release() 歸還，且歸還後不可再使用；
+ * 開啟 setLeakDetection(true) 時會記錄每個尚未歸還的 ByteBuffer 取得位置，可由 reportLeaks() 輸出
+ */
+public class ByteBufferPool {
+
+    private static final int MIN_SIZE_SHIFT = 12; // 4 KiB
+    private static final int MAX_SIZE_SHIFT = 20; // 1 MiB
+    private static final int SIZE_COUNT = MAX_SIZE_SHIFT - MIN_SIZE_SHIFT + 1;
+
+    // 前半部為 heap buffer，後半部為 direct buffer
+    private final ArrayList<ConcurrentLinkedQueue<ByteBuffer>> pools = new ArrayList<>();
+    private final AtomicInteger[] pooledCounts = new AtomicInteger[SIZE_COUNT * 2];
+
+    private volatile int chunkSize = 16 * 1024;
+    private volatile int maxPooledPerSize = 256;
+    private volatile boolean isLeakDetection = false;
+    private final Map<ByteBuffer, Throwable> outstanding = new IdentityHashMap<>();
+
+    private final AtomicLong hitCount = new AtomicLong(0);
+    private final AtomicLong missCount = new AtomicLong(0);
+    private final AtomicLong acquireCount = new AtomicLong(0);
+    private final AtomicLong releaseCount = new AtomicLong(0);
+
+    public ByteBufferPool() {
+        for(int i = 0; i < SIZE_COUNT * 2; i++) {
+            pools.add(new ConcurrentLinkedQueue<>());
+            pooledCounts[i] = new AtomicInteger(0);
+        }
+    }
+
+    /**
+     * 取得預設大小（chunkSize）的 ByteBuffer
+     */
+    public ByteBuffer acquire() {
+        return acquire(chunkSize);
+    }
+
+    /**
+     * 取得容量不小於 size 的 heap ByteBuffer（position = 0, limit = capacity），
+     * 超過 1 MiB 時不會經由 Pool 管理
+     */
+    public ByteBuffer acquire(int size) {
+        return acquire(size, false);
+    }
+
+    /**
+     * 取得容量不小於 size 的 direct ByteBuffer
+     */
+    public ByteBuffer acquireDirect(int size) {
+        return acquire(size, true);
+    }
+
+    private ByteBuffer acquire(int size, boolean isDirect) {
+        acquireCount.incrementAndGet();
+        int sizeIndex = indexOf(size);
+        int index = sizeIndex + (isDirect ? SIZE_COUNT : 0);
+        ByteBuffer buffer = null;
+        if(sizeIndex >= 0) {
+            buffer = pools.get(index).poll();
+            if(null != buffer) pooledCounts[index].decrementAndGet();
+        }
+        if(null == buffer) {
+            missCount.incrementAndGet();
+            int capacity = sizeIndex >= 0 ? 1 << (sizeIndex + MIN_SIZE_SHIFT) : size;
+            buffer = isDirect ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+        } else {
+            hitCount.incrementAndGet();
+        }
+        if(isLeakDetection) {
+            synchronized (outstanding) {
+                outstanding.put(buffer, new Throwable("ByteBuffer acquired here"));
+            }
+        }
+        return buffer;
+    }
+
+    /**
+     * 歸還 ByteBuffer，超過該大小的保留數量上限時直接交由 GC 回收
+     */
+    public void release(ByteBuffer buffer) {
+        if(null == buffer) return;
+        if(isLeakDetection) {
+            synchronized (outstanding) {
+                if(null == outstanding.remove(buffer)) {
+                    try {
+                        throw new Exception("ByteBuffer 重複歸還或並非由此 Pool 取得");
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                    return;
+                }
+            }
+        }
+        releaseCount.incrementAndGet();
+        int capacity = buffer.capacity();
+        int sizeIndex = indexOf(capacity);
+        // 僅回收剛好為分級大小的 ByteBuffer
+        if(sizeIndex < 0 || (1 << (sizeIndex + MIN_SIZE_SHIFT)) != capacity || buffer.isReadOnly()) return;
+        int index = sizeIndex + (buffer.isDirect() ? SIZE_COUNT : 0);
+        if(pooledCounts[index].incrementAndGet() > maxPooledPerSize) {
+            pooledCounts[index].decrementAndGet();
+            return;
+        }
+        buffer.clear();
+        pools.get(index).offer(buffer);
+    }
+
+    /**
+     * 設定 acquire() 預設的緩衝區大小（bytes），會進位至 2 的次方
+     */
+    public void setChunkSize(int chunkSize) {
+        if(chunkSize <= 0 || chunkSize > (1 << MAX_SIZE_SHIFT)) {
+            System.err.println("chunkSize 必須介於 1 ~ " + (1 << MAX_SIZE_SHIFT) + " bytes 之間");
+            return;
+        }
+        this.chunkSize = 1 << (indexOf(chunkSize) + MIN_SIZE_SHIFT);
+    }
+
+    public int getChunkSize() {
+        return this.chunkSize;
+    }
+
+    /**
+     * 每個大小分級最多保留的閒置 ByteBuffer 數量
+     */
+    public void setMaxPooledPerSize(int maxPooledPerSize) {
+        if(maxPooledPerSize < 0) {
+            System.err.println("保留數量必須是一個不小於 0 的整數");
+            return;
+        }
+        this.maxPooledPerSize = maxPooledPerSize;
+    }
+
+    /**
+     * 除錯用途，記錄每個 ByteBuffer 的取得位置以找出未歸還的程式碼
+     */
+    public void setLeakDetection(boolean isLeakDetection) {
+        this.isLeakDetection = isLeakDetection;
+        if(!isLeakDetection) {
+            synchronized (outstanding) {
+                outstanding.clear();
+            }
+        }
+    }
+
+    /**
+     * 輸出所有尚未歸還的 ByteBuffer 取得位置（需開啟 setLeakDetection），回傳數量
+     */
+    public int reportLeaks() {
+        synchronized (outstanding) {
+            for(Map.Entry<ByteBuffer, Throwable> entry : outstanding.entrySet()) {
+                System.err.println("尚未歸還的 ByteBuffer（" + entry.getKey().capacity() + " bytes）");
+                entry.getValue().printStackTrace();
+            }
+            return outstanding.size();
+        }
+    }
+
+    /**
+     * 清除所有閒置的 ByteBuffer
+     */
+    public void clear() {
+        for(int i = 0, len = pools.size(); i < len; i++) {
+            pools.get(i).clear();
+            pooledCounts[i].set(0);
+        }
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * 目前已取得但尚未歸還的數量
+     */
+    public long getOutstandingCount() {
+        return acquireCount.get() - releaseCount.get();
+    }
+
+    public int getPooledCount() {
+        int count = 0;
+        for(AtomicInteger pooledCount : pooledCounts) count += pooledCount.get();
+        return count;
+    }
+
+    // 對應的大小分級位置，超過最大分級時回傳 -1
+    private static int indexOf(int size) {
+        if(size > (1 << MAX_SIZE_SHIFT)) return -1;
+        int shift = 32 - Integer.numberOfLeadingZeros(Math.max(size, 1) - 1);
+        return Math.max(shift, MIN_SIZE_SHIFT) - MIN_SIZE_SHIFT;
+    }
+
+}
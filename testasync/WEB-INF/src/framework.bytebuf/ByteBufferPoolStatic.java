@@ -0,0 +1,19 @@
+package framework.bytebuf;
+
+public class ByteBufferPoolStatic {
+
+    private static final ByteBufferPool instance;
+
+    private ByteBufferPoolStatic() {}
+
+    static {
+        instance = new ByteBufferPoolStatic.Instance();
+    }
+
+    public static ByteBufferPool getInstance() {
+        return instance;
+    }
+
+    private static class Instance extends ByteBufferPool {}
+
+}
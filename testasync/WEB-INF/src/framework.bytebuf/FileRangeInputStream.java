@@ -0,0 +1,78 @@
+package framework.bytebuf;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 讀取檔案中 [start, end] 區段（皆為包含）的 InputStream，
+ * 於第一次讀取時才開啟檔案，使多個區段串接（multipart/byteranges）時不會同時占用多個檔案描述符
+ */
+public class FileRangeInputStream extends InputStream {
+
+    private final File file;
+    private final long start;
+    private long remaining;
+    private FileChannel fileChannel = null;
+    private boolean isClosed = false;
+
+    public FileRangeInputStream(File file, long start, long end) {
+        this.file = file;
+        this.start = start;
+        this.remaining = end - start + 1;
+    }
+
+    private void ensureStreamAvailable() throws IOException {
+        if (this.isClosed) {
+            throw new IOException("read on a closed InputStream!");
+        }
+        if (null == this.fileChannel) {
+            this.fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            this.fileChannel.position(start);
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        int len = this.read(b, 0, 1);
+        return len == -1 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0) return 0;
+        if (this.remaining <= 0) {
+            this.close();
+            return -1;
+        }
+        this.ensureStreamAvailable();
+        int len = (int) Math.min(length, this.remaining);
+        int bytesRead = this.fileChannel.read(ByteBuffer.wrap(buffer, offset, len));
+        if (bytesRead == -1) {
+            this.remaining = 0;
+            this.close();
+            return -1;
+        }
+        this.remaining -= bytesRead;
+        return bytesRead;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(0, this.remaining));
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.isClosed = true;
+        if (null != this.fileChannel) {
+            this.fileChannel.close();
+            this.fileChannel = null;
+        }
+    }
+
+}
@@ -0,0 +1,105 @@
+package framework.bytebuf;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Vector;
+
+/**
+ * 寫入 ByteBufferPool 取得的緩衝區的 OutputStream，用於輸出前需要先得知完整長度的內容（例如 Content-Length），
+ * 不需要像 ByteArrayOutputStream 隨內容成長重複複製陣列，也不需要另外轉換為 String 或 byte[]
+ * -
+ * 寫入完成後以 toInputStream() 讀取，該 InputStream close() 時將緩衝區歸還 ByteBufferPool；
+ * 未轉換為 InputStream 時應以 release() 歸還
+ */
+public class PooledByteBufferOutputStream extends OutputStream {
+
+    private final ArrayList<ByteBuffer> chunks = new ArrayList<>();
+    private long size = 0;
+    private boolean isReleased = false;
+
+    @Override
+    public void write(int b) throws IOException {
+        current().put((byte) b);
+        size++;
+    }
+
+    @Override
+    public void write(byte[] bytes, int off, int len) throws IOException {
+        if ((off < 0) || (len < 0) || (off + len > bytes.length)) throw new IndexOutOfBoundsException();
+        while (len > 0) {
+            ByteBuffer chunk = current();
+            int count = Math.min(len, chunk.remaining());
+            chunk.put(bytes, off, count);
+            off += count;
+            len -= count;
+            size += count;
+        }
+    }
+
+    /**
+     * 已寫入的大小（bytes）
+     */
+    public long size() {
+        return this.size;
+    }
+
+    /**
+     * 以 InputStream 讀取已寫入的內容，之後不可再寫入；close() 時歸還緩衝區
+     */
+    public InputStream toInputStream() throws IOException {
+        ensureAvailable();
+        Vector<InputStream> streams = new Vector<>();
+        for(ByteBuffer chunk : chunks) {
+            streams.add(new ByteArrayInputStream(chunk.array(), 0, chunk.position()));
+        }
+        isReleased = true; // 緩衝區改由 InputStream 管理
+        final ArrayList<ByteBuffer> owned = new ArrayList<>(chunks);
+        chunks.clear();
+        return new SequenceInputStream(streams.elements()) {
+            private boolean isClosed = false;
+
+            @Override
+            public void close() throws IOException {
+                super.close();
+                if(isClosed) return;
+                isClosed = true;
+                for(ByteBuffer chunk : owned) ByteBufferPoolStatic.getInstance().release(chunk);
+            }
+        };
+    }
+
+    /**
+     * 歸還緩衝區，可重複呼叫
+     */
+    public void release() {
+        if(isReleased) return;
+        isReleased = true;
+        for(ByteBuffer chunk : chunks) ByteBufferPoolStatic.getInstance().release(chunk);
+        chunks.clear();
+    }
+
+    @Override
+    public void close() {
+        // 保留內容以供 toInputStream() 讀取
+    }
+
+    private ByteBuffer current() throws IOException {
+        ensureAvailable();
+        ByteBuffer chunk = chunks.isEmpty() ? null : chunks.get(chunks.size() - 1);
+        if(null == chunk || !chunk.hasRemaining()) {
+            chunk = ByteBufferPoolStatic.getInstance().acquire();
+            chunks.add(chunk);
+        }
+        return chunk;
+    }
+
+    private void ensureAvailable() throws IOException {
+        if(isReleased) throw new IOException("write on a released OutputStream");
+    }
+
+}
@@ -1,31 +1,63 @@
 package framework.database.datasource;
 
+import framework.database.StatementCacheServiceStatic;
 import framework.database.connection.ConnectContext;
 import framework.database.connection.ConnectorConfig;
 import framework.database.interfaces.ConnectionPool;
+import framework.logs.LoggerService;
 import framework.thread.ThreadPoolStatic;
 
-import java.lang.ref.WeakReference;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.concurrent.ExecutorService;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * [connection template]
- * 基礎資料庫連線方式，此類別為無 Connection Pool 技術可採用時才選擇的方案
- * 因為不具有 ConnectionPool 管理會造成整體效率較差，不建議直接將此功能使用於生產環境中
+ * 不依賴外部套件的基礎連接池，無法使用 TomcatDataSource（tomcat-jdbc.jar）時的替代方案
+ * -
+ * 閒置連接保存於 ConcurrentLinkedDeque（後進先出，優先使用最近使用過的連接），
+ * 連接數量上限由 Semaphore 控制，借出與歸還皆不需要鎖定整個連接池
+ * -
+ * getConnection() 取得的是代理的 Connection，close() 時歸還至連接池而不是關閉實際連接；
+ * 借出時若距離上次驗證超過 validationInterval 會以 Connection.isValid() 驗證，
+ * 超過 maxAge 的連接於歸還或借出時關閉，借出超過 removeAbandonedTimeout 未歸還的連接視為洩漏並強制關閉
  */
 public class SimpleDataSource extends ConnectorConfig implements ConnectionPool {
 
+    private static final long MAINTENANCE_INTERVAL = 20 * 1000; // 檢查閒置及洩漏連接的頻率（ms）
+    private static final long MIN_EVICTABLE_IDLE_TIME = 30 * 1000; // 超過 minIdle 的閒置連接保留的最短時間（ms）
+    private static final int VALIDATION_TIMEOUT = 10; // 驗證連接的時間限制（second）
+
     private ConnectContext dbContext = null;
-    private ArrayList<HashMap<String, Object>> pool = null;
-    private ExecutorService worker = null;
-    private Boolean runTag = false;
-    private long maxActiveSecond = ( 1000 * 180 ); // 連結最長的存活時間(ms)限制，預設值
+    private String connectURI = null;
+
+    private final ConcurrentLinkedDeque<PooledEntry> idle = new ConcurrentLinkedDeque<>();
+    private final Set<PooledEntry> borrowed = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger totalCount = new AtomicInteger(0);
+    private final Semaphore permits;
+    private final AtomicBoolean isInitialized = new AtomicBoolean(false);
+    private volatile boolean isShutdown = false;
+    private ScheduledFuture<?> maintenanceFuture = null;
+
+    private long maxAge = ( 1000 * 180 ); // 連結最長的存活時間(ms)限制，預設值
+    private long validationInterval = 30 * 1000; // 借出時驗證連接的間隔（ms），0 表示每次借出都驗證
+    private boolean isLogAbandoned = false; // 記錄洩漏連接的借出位置（會增加每次借出的成本）
+
+    private final AtomicLong waitTimeoutCount = new AtomicLong(0);
+    private final AtomicLong abandonedCount = new AtomicLong(0);
 
     private SimpleDataSource(ConnectContext dbContext) {
         if(null == dbContext) {
@@ -34,128 +66,331 @@ public class SimpleDataSource extends ConnectorConfig implements ConnectionPool
             } catch(Exception e) {
                 e.printStackTrace();
             }
+            this.permits = new Semaphore(0);
         } else {
             this.dbContext = dbContext;
+            if(dbContext.getDB_Max_Age() > 0) this.maxAge = dbContext.getDB_Max_Age();
+            this.permits = new Semaphore(dbContext.getDB_Max_Active(), true);
+            this.connectURI = getConnectURI(
+                    dbContext.getDB_Type(),
+                    dbContext.getDB_IP(),
+                    dbContext.getDB_Port(),
+                    dbContext.getDB_Name(),
+                    dbContext.getUseSSL()
+            );
+            try {
+                Class.forName(getDriverClassName(dbContext.getDB_Type()));
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
         }
     }
 
     @Override
     public Connection getConnection() {
+        if(null == dbContext || isShutdown) return null;
         initPool();
-        Connection cacheConn = null;
         try {
-            Class.forName(getDriverClassName(dbContext.getDB_Type()));
-            String connectURI = getConnectURI(
-                    dbContext.getDB_Type(),
-                    dbContext.getDB_IP(),
-                    dbContext.getDB_Port(),
-                    dbContext.getDB_Name()
-            );
-            Connection conn = DriverManager.getConnection(connectURI, dbContext.getDB_ACC(), dbContext.getDB_PWD());
-            if(null == conn) {
-                try {
-                    throw new Exception("資料庫連接建立發生錯誤");
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
+            if(!permits.tryAcquire(dbContext.getDB_Max_Wait(), TimeUnit.MILLISECONDS)) {
+                waitTimeoutCount.incrementAndGet();
+                String msg_zht = "連接池已滿載（" + dbContext.getDB_Max_Active() + "），等候逾時";
+                LoggerService.logERROR(msg_zht);
+                System.err.println(msg_zht);
+                return null;
             }
-            cacheConn = new WeakReference<>( conn ).get();
-            {
-                assert cacheConn != null;
-                cacheConn.setAutoCommit(false); // AutoCommit
-                HashMap<String, Object> connObj = new HashMap<>();
-                connObj.put("time", String.valueOf(System.currentTimeMillis()));
-                connObj.put("connection", cacheConn);
-                pool.add(connObj);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        PooledEntry entry = null;
+        try {
+            long now = System.currentTimeMillis();
+            while (null != (entry = idle.pollFirst())) {
+                if(entry.isExpired(now) || !entry.validate(now)) {
+                    destroy(entry);
+                    continue;
+                }
+                break;
             }
+            if(null == entry) entry = createEntry();
         } catch (Exception e) {
             e.printStackTrace();
         }
-        return cacheConn;
+        if(null == entry) {
+            permits.release();
+            return null;
+        }
+        return entry.borrow();
     }
 
     @Override
     public void shutdown() {
-        {
-            if (null == pool || pool.size() == 0) return;
-            for (HashMap<String, Object> connObj : pool) {
-                try {
-                    Connection conn = (Connection) connObj.get("connection");
-                    if (!conn.isClosed()) {
-                        conn.close();
-                    }
-                } catch (Exception e) {
-                    // e.printStackTrace();
-                }
-            }
-            runTag = false;
-            pool.clear();
-        }
-        {
-            if (null != worker && !worker.isShutdown()) {
-                // 設定 worker 已不能再接收新的請求
-                worker.shutdown();
-                try {
-                    // 設定一個 await 時限提供 thread 完成未完畢的工作的最後期限
-                    if (!worker.awaitTermination(3, TimeUnit.SECONDS)) {
-                        // 當回收時限到期時，強制中斷所有 Thread 執行
-                        worker.shutdownNow();
-                    }
-                } catch (Exception e) {
-                    // e.printStackTrace();
-                    // 回收時發生錯誤時亦強制關閉所有 thread
-                    worker.shutdownNow();
-                }
+        isShutdown = true;
+        synchronized (this) {
+            if(null != maintenanceFuture) {
+                maintenanceFuture.cancel(false);
+                maintenanceFuture = null;
             }
         }
+        PooledEntry entry;
+        while (null != (entry = idle.pollFirst())) destroy(entry);
+        for(PooledEntry borrowedEntry : borrowed) {
+            borrowedEntry.forceClose(borrowedEntry.proxy);
+        }
     }
 
+    /**
+     * 同 Builder.setMaxAge()，單位為秒數
+     */
     public void setMaxActiveSecond(int second) {
         if(second <= 0) {
             System.err.println("設定的連結持續時間必須是一個大於 0 的整數");
             return;
         }
-        this.maxActiveSecond = second * 1000L;
+        this.maxAge = second * 1000L;
+    }
+
+    /**
+     * 目前借出中的連接數量
+     */
+    public int getActiveCount() {
+        return borrowed.size();
+    }
+
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    /**
+     * 目前已建立（借出中及閒置）的連接數量
+     */
+    public int getTotalCount() {
+        return totalCount.get();
+    }
+
+    /**
+     * 因連接池滿載而等候逾時的累計數量
+     */
+    public long getWaitTimeoutCount() {
+        return waitTimeoutCount.get();
+    }
+
+    /**
+     * 因借出過久未歸還而被強制關閉的累計數量
+     */
+    public long getAbandonedCount() {
+        return abandonedCount.get();
     }
 
-    // 初始化基礎資料庫連結管理
+    // 初始化連接池：建立 initialSize 個連接並開始定期維護
     private void initPool() {
-        if(null == pool) {
-            runTag = true;
-            pool = new ArrayList<>();
-            setupSimpleManager();
-        }
-    }
-
-    // 簡易連接池回收管理
-    private void setupSimpleManager() {
-        // if(null == worker) worker = ThreadPoolStatic.getInstance();
-        // worker.execute(() -> {
-        ThreadPoolStatic.execute(() -> {
-            while(runTag) {
-                for (HashMap<String, Object> connObj : pool) {
-                    // 檢查是否有逾時的 Connection 未被關閉
-                    try {
-                        long nowTime = System.currentTimeMillis();
-                        long connTime = Long.parseLong(String.valueOf(connObj.get("time")));
-                        Connection conn = (Connection) connObj.get("connection");
-                        if( ( nowTime - connTime ) > maxActiveSecond ) {
-                            if(!conn.isClosed()) conn.close();
-                        }
-                        if(conn.isClosed()) {
-                            pool.remove(connObj);
-                        }
-                    } catch (SQLException e) {
-                        // e.printStackTrace();
-                    }
+        if(!isInitialized.compareAndSet(false, true)) return;
+        int initialSize = Math.min(dbContext.getDB_InitialSize(), dbContext.getDB_Max_Active());
+        for(int i = 0; i < initialSize; i++) {
+            PooledEntry entry = createEntry();
+            if(null == entry) break;
+            idle.offerLast(entry);
+        }
+        scheduleMaintenance();
+    }
+
+    // 排程執行緒同時負責請求逾時等計時工作，只在該執行緒上派發，阻塞的 JDBC 操作交由 ThreadPool 執行
+    private synchronized void scheduleMaintenance() {
+        if(isShutdown) return;
+        maintenanceFuture = ThreadPoolStatic.schedule(() -> ThreadPoolStatic.execute(() -> {
+            try {
+                maintain();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            scheduleMaintenance();
+        }), MAINTENANCE_INTERVAL);
+    }
+
+    // 關閉洩漏、過期及多餘的閒置連接，並補足 minIdle
+    private void maintain() {
+        long now = System.currentTimeMillis();
+        long abandonedTime = dbContext.getDB_RemoveAbandonedTimeout() * 1000L;
+        for(PooledEntry entry : borrowed) {
+            // 借出時間與代理一併取得，檢查期間連接可能已歸還並借給下一個使用者
+            ConnectionProxy proxy = entry.proxy;
+            if(null == proxy || now - proxy.borrowTime <= abandonedTime) continue;
+            if(!entry.forceClose(proxy)) continue;
+            abandonedCount.incrementAndGet();
+            String msg_zht = "連接借出超過 " + dbContext.getDB_RemoveAbandonedTimeout() + " 秒未歸還，已強制關閉";
+            LoggerService.logERROR(msg_zht);
+            System.err.println(msg_zht);
+            if(null != proxy.borrowStack) proxy.borrowStack.printStackTrace();
+        }
+        int minIdle = Math.min(dbContext.getDB_Min_Idle(), dbContext.getDB_Max_Active());
+        int maxIdle = Math.min(dbContext.getDB_Max_Idle(), dbContext.getDB_Max_Active());
+        int idleCount = idle.size();
+        for(PooledEntry entry : idle) {
+            boolean isEvictable = idleCount > maxIdle || (idleCount > minIdle && now - entry.lastUsedTime > MIN_EVICTABLE_IDLE_TIME);
+            if(!entry.isExpired(now) && !isEvictable) continue;
+            if(idle.remove(entry)) {
+                destroy(entry);
+                idleCount--;
+            }
+        }
+        // 補充時同樣佔用 permits，避免與 getConnection() 同時建立而超過 maxActive
+        while (idle.size() < minIdle && !isShutdown) {
+            if(!permits.tryAcquire()) break;
+            try {
+                if(totalCount.get() >= dbContext.getDB_Max_Active()) break;
+                PooledEntry entry = createEntry();
+                if(null == entry) break;
+                idle.offerLast(entry);
+            } finally {
+                permits.release();
+            }
+        }
+    }
+
+    private PooledEntry createEntry() {
+        try {
+            Connection conn = DriverManager.getConnection(connectURI, dbContext.getDB_ACC(), dbContext.getDB_PWD());
+            if(null == conn) {
+                throw new Exception("資料庫連接建立發生錯誤");
+            }
+            conn.setAutoCommit(false); // AutoCommit
+            totalCount.incrementAndGet();
+            return new PooledEntry(conn);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    private void destroy(PooledEntry entry) {
+        totalCount.decrementAndGet();
+        StatementCacheServiceStatic.getInstance().evict(entry.connection);
+        try {
+            if(!entry.connection.isClosed()) entry.connection.close();
+        } catch (Exception e) {
+            // e.printStackTrace();
+        }
+    }
+
+    // 由代理 Connection 的 close() 呼叫，重設連接狀態後放回閒置佇列
+    private void giveBack(PooledEntry entry) {
+        borrowed.remove(entry);
+        boolean isReusable = !isShutdown && !entry.isExpired(System.currentTimeMillis());
+        if(isReusable) {
+            try {
+                Connection conn = entry.connection;
+                if(conn.isClosed()) {
+                    isReusable = false;
+                } else {
+                    // 未提交的內容不應帶給下一個使用者
+                    if(!conn.getAutoCommit()) conn.rollback();
+                    conn.setAutoCommit(false);
+                    if(conn.isReadOnly()) conn.setReadOnly(false);
+                }
+            } catch (Exception e) {
+                isReusable = false;
+            }
+        }
+        if(isReusable) {
+            entry.lastUsedTime = System.currentTimeMillis();
+            idle.offerFirst(entry);
+        } else {
+            destroy(entry);
+        }
+        permits.release();
+    }
+
+    // 連接池中的實際連接
+    private class PooledEntry {
+
+        private final Connection connection;
+        private final long createTime = System.currentTimeMillis();
+        private volatile long lastValidTime = createTime;
+        private volatile long lastUsedTime = createTime;
+        private volatile ConnectionProxy proxy = null; // 目前借出的代理，包含借出時間及位置
+
+        private PooledEntry(Connection connection) {
+            this.connection = connection;
+        }
+
+        private boolean isExpired(long now) {
+            return maxAge > 0 && now - createTime > maxAge;
+        }
+
+        private boolean validate(long now) {
+            if(now - lastValidTime < validationInterval) return true;
+            try {
+                if(!connection.isValid(VALIDATION_TIMEOUT)) return false;
+            } catch (SQLException e) {
+                return false;
+            }
+            lastValidTime = now;
+            return true;
+        }
+
+        private Connection borrow() {
+            this.proxy = new ConnectionProxy(this, isLogAbandoned ? new Throwable("Connection borrowed here") : null);
+            borrowed.add(this);
+            return (Connection) Proxy.newProxyInstance(
+                    Connection.class.getClassLoader(),
+                    new Class<?>[] { Connection.class },
+                    proxy
+            );
+        }
+
+        // 洩漏或連接池關閉時，使該次借出的代理失效並關閉實際連接；代理已歸還（連接可能已借給他人）時不處理
+        private boolean forceClose(ConnectionProxy expected) {
+            if(null == expected || expected != this.proxy) return false;
+            if(!expected.isReturned.compareAndSet(false, true)) return false;
+            borrowed.remove(this);
+            destroy(this);
+            permits.release();
+            return true;
+        }
+
+    }
+
+    // 代理 Connection，close() 時歸還連接池，歸還後的任何操作都會拋出 SQLException
+    private class ConnectionProxy implements InvocationHandler {
+
+        private final PooledEntry entry;
+        private final long borrowTime = System.currentTimeMillis();
+        private final Throwable borrowStack;
+        private final AtomicBoolean isReturned = new AtomicBoolean(false);
+
+        private ConnectionProxy(PooledEntry entry, Throwable borrowStack) {
+            this.entry = entry;
+            this.borrowStack = borrowStack;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close": {
+                    if(isReturned.compareAndSet(false, true)) giveBack(entry);
+                    return null;
+                }
+                case "isClosed": {
+                    return isReturned.get() || entry.connection.isClosed();
+                }
+                case "equals": {
+                    return proxy == args[0];
+                }
+                case "hashCode": {
+                    return System.identityHashCode(proxy);
                 }
-                try {
-                    TimeUnit.SECONDS.sleep(180);
-                } catch (Exception e) {
-                    // e.printStackTrace();
+                case "toString": {
+                    return "SimpleDataSource.Connection@" + Integer.toHexString(System.identityHashCode(proxy));
                 }
             }
-        });
+            if(isReturned.get()) throw new SQLException("Connection 已歸還至連接池，無法再使用");
+            try {
+                return method.invoke(entry.connection, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
     }
 
     /**
@@ -164,6 +399,8 @@ public class SimpleDataSource extends ConnectorConfig implements ConnectionPool
      */
     public static class Builder {
         private final ConnectContext dbContext = new SimpleConnContext();
+        private long validationInterval = 30 * 1000;
+        private boolean isLogAbandoned = false;
 
         public SimpleDataSource.Builder setAccount(String account) {
             this.dbContext.setDB_ACC(account);
@@ -195,8 +432,77 @@ public class SimpleDataSource extends ConnectorConfig implements ConnectionPool
             return this;
         }
 
+        /**
+         * 連接的最長存活時間（ms），預設為 180 秒
+         */
+        public SimpleDataSource.Builder setMaxAge(int maxAge) {
+            this.dbContext.setDB_Max_Age(maxAge);
+            return this;
+        }
+
+        public SimpleDataSource.Builder setMaxActive(int maxActive) {
+            this.dbContext.setDB_Max_Active(maxActive);
+            return this;
+        }
+
+        public SimpleDataSource.Builder setMaxIdle(int maxIdle) {
+            this.dbContext.setDB_Max_Idle(maxIdle);
+            return this;
+        }
+
+        public SimpleDataSource.Builder setInitialSize(int initialSize) {
+            this.dbContext.setDB_InitialSize(initialSize);
+            return this;
+        }
+
+        public SimpleDataSource.Builder setMinIdle(int minIdle) {
+            this.dbContext.setDB_Min_Idle(minIdle);
+            return this;
+        }
+
+        public SimpleDataSource.Builder setMaxWait(int maxWait) {
+            this.dbContext.setDB_Max_Wait(maxWait);
+            return this;
+        }
+
+        /**
+         * 借出超過此時間（second）未歸還的連接視為洩漏並強制關閉
+         */
+        public SimpleDataSource.Builder setRemoveAbandonedTimeout(int removeAbandonedTimeout) {
+            this.dbContext.setDB_RemoveAbandonedTimeout(removeAbandonedTimeout);
+            return this;
+        }
+
+        /**
+         * 借出時驗證連接的間隔（ms），0 表示每次借出都驗證
+         */
+        public SimpleDataSource.Builder setValidationInterval(long validationInterval) {
+            if(validationInterval < 0) {
+                System.err.println("validationInterval 必須是一個不小於 0 的整數");
+                return this;
+            }
+            this.validationInterval = validationInterval;
+            return this;
+        }
+
+        /**
+         * 記錄洩漏連接的借出位置，除錯用途
+         */
+        public SimpleDataSource.Builder setLogAbandoned(boolean isLogAbandoned) {
+            this.isLogAbandoned = isLogAbandoned;
+            return this;
+        }
+
+        public SimpleDataSource.Builder setUseSSL(boolean useSSL) {
+            this.dbContext.setUseSSL(useSSL);
+            return this;
+        }
+
         public SimpleDataSource build() {
-            return new SimpleDataSource(this.dbContext);
+            SimpleDataSource dataSource = new SimpleDataSource(this.dbContext);
+            dataSource.validationInterval = this.validationInterval;
+            dataSource.isLogAbandoned = this.isLogAbandoned;
+            return dataSource;
         }
     }
 
@@ -1,11 +1,12 @@
 package framework.database;
 
-import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 import framework.database.pattern.DataTable;
 import framework.observer.Bundle;
 import framework.observer.Handler;
 import framework.observer.Message;
+import framework.text.GsonServiceStatic;
+import framework.web.context.CancellationToken;
 
 import java.lang.ref.WeakReference;
 import java.sql.*;
@@ -16,17 +17,51 @@ import java.util.Objects;
 
 /**
  * 此 Framework 核心概念中每一次的 SQL 指令請求都代表一個獨立的 DatabaseAction
+ * -
+ * 單獨使用時執行完畢即關閉 Connection；
+ * 由 DatabaseTransaction.action() 建立時共用交易的 Connection，不會自行 commit 或關閉 Connection
  */
 public class DatabaseAction {
 
     private Connection conn = null;
     private PreparedStatement preparedStatement = null;
+    private String sql = null;
+    private boolean isCacheable = true;
     private boolean autoCommit = false;
+    private CancellationToken cancellationToken = null;
+    private DatabaseTransaction transaction = null;
+    private boolean readOnly = false;
+    private final Object cancelLock = new Object(); // Statement.cancel() 與歸還 PreparedStatement 不可同時進行
+    private boolean isStatementReleased = false; // PreparedStatement 已歸還，較晚觸發的 cancel() 不可再作用於該 PreparedStatement
 
     /**
      * SQL 指令字串, Connection, ArrayList（確保參數順序）, AutoCommit Status
      */
     public DatabaseAction(String sql, Connection conn, ArrayList<String> parameters, boolean autoCommit) {
+        this(sql, conn, parameters, autoCommit, null);
+    }
+
+    /**
+     * 帶入請求的 CancellationToken 時，請求逾時會以 Statement.cancel() 中斷執行中的 SQL 指令
+     */
+    public DatabaseAction(String sql, Connection conn, ArrayList<String> parameters, boolean autoCommit, CancellationToken cancellationToken) {
+        this(sql, conn, parameters, null, autoCommit, cancellationToken, null, false, true);
+    }
+
+    private DatabaseAction(String sql, Connection conn, ArrayList<String> parameters, DatabaseParameters typedParameters, boolean autoCommit, CancellationToken cancellationToken, DatabaseTransaction transaction, boolean readOnly, boolean isCacheable) {
+        this.cancellationToken = cancellationToken;
+        this.sql = sql;
+        this.isCacheable = isCacheable;
+        this.transaction = transaction;
+        if(null != transaction) {
+            // 交易中由 DatabaseTransaction 負責 commit，唯讀狀態由 DatabaseTransaction 設定
+            conn = transaction.getConnection();
+            autoCommit = false;
+        } else if(readOnly) {
+            // 單獨執行的唯讀指令不需要 commit
+            autoCommit = true;
+            this.readOnly = true;
+        }
         // check connection status
         if(null == conn) {
             try {
@@ -51,8 +86,9 @@ public class DatabaseAction {
         this.autoCommit = autoCommit;
         {
             try {
-                if(!this.conn.isClosed()) {
+                if(null == transaction && !this.conn.isClosed()) {
                     this.conn.setAutoCommit(this.autoCommit);
+                    if(this.readOnly) this.conn.setReadOnly(true);
                 }
             } catch (Exception e) {
                 e.printStackTrace();
@@ -60,9 +96,13 @@ public class DatabaseAction {
         }
         // init PreparedStatement
         {
+            PreparedStatement preState = null;
             try {
-                PreparedStatement preState = new WeakReference<>( conn.prepareStatement(sql) ).get();
-                if(null != parameters && !parameters.isEmpty()) {
+                preState = new WeakReference<>( prepareStatement(conn, sql) ).get();
+                if(null != typedParameters) {
+                    assert preState != null;
+                    typedParameters.bind(preState);
+                } else if(null != parameters && !parameters.isEmpty()) {
                     for(int i = 0, len = parameters.size(); i < len; i++) {
                         String value = parameters.get(i);
                         // PreparedStatement is start at 1 to N
@@ -75,6 +115,12 @@ public class DatabaseAction {
                 preparedStatement = preState; // 可用時
             } catch (Exception e) {
                 e.printStackTrace();
+                try {
+                    // 綁定參數失敗的 PreparedStatement 不放回快取
+                    if(null != preState) preState.close();
+                } catch (Exception ex) {
+                    // ex.printStackTrace();
+                }
                 preparedStatement = null;
             }
         }
@@ -83,18 +129,22 @@ public class DatabaseAction {
     public Boolean execute() {
         Boolean res = null;
         Savepoint savepoint = null;
+        if(isCancelled()) {
+            close();
+            return res;
+        }
+        Runnable cancelTask = registerCancel(preparedStatement);
         try {
-            if(!autoCommit) savepoint = conn.setSavepoint();
+            savepoint = setSavepoint();
             res = preparedStatement.execute();
-            if(!autoCommit) conn.commit();
+            // PreparedStatement 會放回 StatementCacheService，產生的 ResultSet 必須自行關閉
+            if(res) closeResultSet(preparedStatement.getResultSet());
+            commit(savepoint);
         } catch (Exception e) {
             e.printStackTrace();
-            try {
-                if (!autoCommit) conn.rollback(savepoint);
-            } catch (Exception ex) {
-                ex.printStackTrace();
-            }
+            rollback(savepoint);
         }
+        unregisterCancel(cancelTask);
         close();
         return res;
     }
@@ -102,19 +152,22 @@ public class DatabaseAction {
     public DataTable query() {
         DataTable res = null;
         Savepoint savepoint = null;
+        if(isCancelled()) {
+            close();
+            return res;
+        }
+        Runnable cancelTask = registerCancel(preparedStatement);
         try {
-            if(!autoCommit) savepoint = conn.setSavepoint();
-            ResultSet rs = preparedStatement.executeQuery();
-            res = new DataTable(rs);
-            if(!autoCommit) conn.commit();
+            savepoint = setSavepoint();
+            try (ResultSet rs = preparedStatement.executeQuery()) {
+                res = new DataTable(rs);
+            }
+            commit(savepoint);
         } catch (Exception e) {
             e.printStackTrace();
-            try {
-                if (!autoCommit) conn.rollback(savepoint);
-            } catch (Exception ex) {
-                ex.printStackTrace();
-            }
+            rollback(savepoint);
         }
+        unregisterCancel(cancelTask);
         close();
         return res;
     }
@@ -125,13 +178,32 @@ public class DatabaseAction {
      */
     public void queryOnHandler(Handler handler) {
         Savepoint savepoint = null;
+        if(isCancelled()) {
+            close();
+            {
+                // 請求已被取消，仍需通知等待結果的 Handler
+                Bundle b = new Bundle();
+                b.putString("organizer", "queryOnHandler");
+                b.putString("status", "fail");
+                b.putString("msg", "cancelled");
+                b.putString("msg_zht", "請求已被取消（" + cancellationToken.getReason() + "），不執行查詢");
+                Message m = handler.obtainMessage();
+                m.setData(b);
+                m.sendToTarget();
+            }
+            return;
+        }
+        Runnable cancelTask = registerCancel(preparedStatement);
         try {
-            if (!autoCommit) savepoint = conn.setSavepoint();
+            savepoint = setSavepoint();
             ResultSet rs = new WeakReference<>( preparedStatement.executeQuery() ).get();
             resultSetToDataRow(rs, handler, savepoint);
         } catch (Exception e) {
             e.printStackTrace();
+            rollback(savepoint);
+            close();
         }
+        unregisterCancel(cancelTask);
     }
 
     /**
@@ -140,18 +212,20 @@ public class DatabaseAction {
     public Integer update() {
         Integer res = null;
         Savepoint savepoint = null;
+        if(isCancelled()) {
+            close();
+            return res;
+        }
+        Runnable cancelTask = registerCancel(preparedStatement);
         try {
-            if(!autoCommit) savepoint = conn.setSavepoint();
+            savepoint = setSavepoint();
             res = preparedStatement.executeUpdate();
-            if(!autoCommit) conn.commit();
+            commit(savepoint);
         } catch (Exception e) {
             e.printStackTrace();
-            try {
-                if (!autoCommit) conn.rollback(savepoint);
-            } catch (Exception ex) {
-                ex.printStackTrace();
-            }
+            rollback(savepoint);
         }
+        unregisterCancel(cancelTask);
         close();
         return res;
     }
@@ -159,18 +233,20 @@ public class DatabaseAction {
     public Long largeUpdate() {
         Long res = null;
         Savepoint savepoint = null;
+        if(isCancelled()) {
+            close();
+            return res;
+        }
+        Runnable cancelTask = registerCancel(preparedStatement);
         try {
-            if(!autoCommit) savepoint = conn.setSavepoint();
+            savepoint = setSavepoint();
             res = preparedStatement.executeLargeUpdate();
-            if(!autoCommit) conn.commit();
+            commit(savepoint);
         } catch (Exception e) {
             e.printStackTrace();
-            try {
-                if (!autoCommit) conn.rollback(savepoint);
-            } catch (Exception ex) {
-                ex.printStackTrace();
-            }
+            rollback(savepoint);
         }
+        unregisterCancel(cancelTask);
         close();
         return res;
     }
@@ -178,18 +254,20 @@ public class DatabaseAction {
     public Integer[] updateBatch(PreparedStatement preparedStatement) {
         Integer[] res = null;
         Savepoint savepoint = null;
+        if(isCancelled()) {
+            close();
+            return res;
+        }
+        Runnable cancelTask = registerCancel(preparedStatement);
         try {
-            if(!autoCommit) savepoint = conn.setSavepoint();
+            savepoint = setSavepoint();
             res = Arrays.stream( preparedStatement.executeBatch() ).boxed().toArray( Integer[]::new );
-            if(!autoCommit) conn.commit();
+            commit(savepoint);
         } catch (Exception e) {
             e.printStackTrace();
-            try {
-                if (!autoCommit) conn.rollback(savepoint);
-            } catch (Exception ex) {
-                ex.printStackTrace();
-            }
+            rollback(savepoint);
         }
+        unregisterCancel(cancelTask);
         close();
         return res;
     }
@@ -197,18 +275,20 @@ public class DatabaseAction {
     public Long[] largeUpdateBatch(PreparedStatement preparedStatement) {
         Long[] res = null;
         Savepoint savepoint = null;
+        if(isCancelled()) {
+            close();
+            return res;
+        }
+        Runnable cancelTask = registerCancel(preparedStatement);
         try {
-            if(!autoCommit) savepoint = conn.setSavepoint();
+            savepoint = setSavepoint();
             res = Arrays.stream( preparedStatement.executeLargeBatch() ).boxed().toArray( Long[]::new );
-            if(!autoCommit) conn.commit();
+            commit(savepoint);
         } catch (Exception e) {
             e.printStackTrace();
-            try {
-                if (!autoCommit) conn.rollback(savepoint);
-            } catch (Exception ex) {
-                ex.printStackTrace();
-            }
+            rollback(savepoint);
         }
+        unregisterCancel(cancelTask);
         close();
         return res;
     }
@@ -218,7 +298,12 @@ public class DatabaseAction {
         private Connection conn = null;
         private String sql = null;
         private ArrayList<String> parameters = null;
+        private DatabaseParameters typedParameters = null;
         private boolean autoCommit = false;
+        private CancellationToken cancellationToken = null;
+        private DatabaseTransaction transaction = null;
+        private boolean readOnly = false;
+        private boolean isCacheable = true;
 
         public DatabaseAction.Builder setConnection(Connection connection) {
             this.conn = connection;
@@ -235,24 +320,129 @@ public class DatabaseAction {
             return this;
         }
 
+        /**
+         * 以具有型態的參數綁定（setInt, setTimestamp 等），設定時取代 setParameters() 的 String 參數
+         */
+        public DatabaseAction.Builder setTypedParameters(DatabaseParameters typedParameters) {
+            this.typedParameters = typedParameters;
+            return this;
+        }
+
         public DatabaseAction.Builder setAutoCommit(boolean autoCommit) {
             this.autoCommit = autoCommit;
             return this;
         }
 
+        /**
+         * 通常帶入 AsyncActionContext.getCancellationToken()，請求逾時時中斷執行中的 SQL 指令
+         */
+        public DatabaseAction.Builder setCancellationToken(CancellationToken cancellationToken) {
+            this.cancellationToken = cancellationToken;
+            return this;
+        }
+
+        /**
+         * 唯讀指令（SELECT）以 autocommit 執行並設定 Connection.setReadOnly(true)，
+         * 省略 commit 的往返，驅動程式也可以據此使用唯讀的最佳化或導向 replica；
+         * 在 DatabaseTransaction 中時忽略，改由 DatabaseTransaction.Builder.setReadOnly() 設定
+         */
+        public DatabaseAction.Builder setReadOnly(boolean readOnly) {
+            this.readOnly = readOnly;
+            return this;
+        }
+
+        /**
+         * 是否使用 StatementCacheService 快取 PreparedStatement，預設為 true；
+         * 只執行一次的 SQL 指令（例如 DDL 或動態組合的 SQL）應設定為 false，避免佔用快取
+         */
+        public DatabaseAction.Builder setStatementCacheable(boolean isCacheable) {
+            this.isCacheable = isCacheable;
+            return this;
+        }
+
+        /**
+         * 在 DatabaseTransaction 中執行，忽略 setConnection() 及 setAutoCommit() 的設定
+         * 通常直接使用 DatabaseTransaction.action()
+         */
+        public DatabaseAction.Builder setTransaction(DatabaseTransaction transaction) {
+            this.transaction = transaction;
+            return this;
+        }
+
         public DatabaseAction build() {
-            return new DatabaseAction(this.sql, this.conn, this.parameters, this.autoCommit);
+            return new DatabaseAction(this.sql, this.conn, this.parameters, this.typedParameters, this.autoCommit, this.cancellationToken, this.transaction, this.readOnly, this.isCacheable);
+        }
+
+    }
+
+    // 只在交易中建立 savepoint，使單一指令失敗時不影響交易中的其他操作；
+    // 單獨執行時失敗直接 rollback 整個指令即可，不需要額外的往返
+    // 唯讀交易沒有需要復原的內容，不建立 savepoint
+    private Savepoint setSavepoint() throws SQLException {
+        if(null == transaction || transaction.isReadOnly()) return null;
+        return conn.setSavepoint();
+    }
+
+    private void rollback(Savepoint savepoint) {
+        try {
+            if(null != savepoint) {
+                conn.rollback(savepoint);
+            } else if(null == transaction && !autoCommit) {
+                conn.rollback();
+            }
+        } catch (Exception ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    // 單獨執行時提交；交易中只通知 DatabaseTransaction 有尚未提交的操作
+    private void commit(Savepoint savepoint) throws SQLException {
+        if(null != transaction) {
+            // 成功後釋放 savepoint，避免長時間的交易累積（例如 PostgreSQL 的 subtransaction）
+            transaction.markPending();
+            if(null != savepoint) {
+                try {
+                    conn.releaseSavepoint(savepoint);
+                } catch (Exception e) {
+                    // 指令已成功執行，釋放失敗不影響結果
+                    e.printStackTrace();
+                }
+            }
+            return;
         }
+        if(!autoCommit) conn.commit();
+    }
 
+    private void closeResultSet(ResultSet rs) {
+        if(null == rs) return;
+        try {
+            rs.close();
+        } catch (Exception e) {
+            // e.printStackTrace();
+        }
     }
 
-    // 資料庫操作要回收：ResultSet, PreparedStatement, Connection
+    private PreparedStatement prepareStatement(Connection conn, String sql) throws Exception {
+        if(!isCacheable) return conn.prepareStatement(sql);
+        return StatementCacheServiceStatic.getInstance().prepare(conn, sql);
+    }
+
+    // 資料庫操作要回收：ResultSet, PreparedStatement（放回 StatementCacheService）, Connection（交易中由 DatabaseTransaction 回收）
     private void close() {
+        // 等待執行中的 cancel() 結束，放回快取的 PreparedStatement 可能隨即被其他請求取出使用
+        synchronized (cancelLock) {
+            isStatementReleased = true;
+        }
         try {
             if(null != preparedStatement && !preparedStatement.isClosed()) {
-                preparedStatement.close();
+                if(isCacheable) {
+                    StatementCacheServiceStatic.getInstance().release(conn, sql, preparedStatement);
+                } else {
+                    preparedStatement.close();
+                }
+                preparedStatement = null;
             }
-            if(null != conn && !conn.isClosed()) {
+            if(null == transaction && null != conn && !conn.isClosed()) {
                 conn.close();
             }
         } catch (Exception e) {
@@ -260,6 +450,33 @@ public class DatabaseAction {
         }
     }
 
+    private boolean isCancelled() {
+        return null != cancellationToken && cancellationToken.isCancelled();
+    }
+
+    // 執行中的請求被取消時，以 Statement.cancel() 通知資料庫中斷該 SQL 指令；
+    // 取消的回呼可能晚於 unregisterCancel() 執行，已由 close() 歸還的 PreparedStatement 不再取消
+    private Runnable registerCancel(PreparedStatement statement) {
+        if(null == cancellationToken || null == statement) return null;
+        Runnable cancelTask = () -> {
+            synchronized (cancelLock) {
+                if(isStatementReleased) return;
+                try {
+                    statement.cancel();
+                } catch (Exception e) {
+                    // e.printStackTrace();
+                }
+            }
+        };
+        cancellationToken.register(cancelTask);
+        return cancelTask;
+    }
+
+    private void unregisterCancel(Runnable cancelTask) {
+        if(null == cancellationToken || null == cancelTask) return;
+        cancellationToken.unregister(cancelTask);
+    }
+
     // used for queryOnHandler
     private void resultSetToDataRow(ResultSet rs, Handler handler, Savepoint savepoint) {
         ArrayList<String> columns = getAllColumnName(rs);
@@ -278,13 +495,13 @@ public class DatabaseAction {
                     b.putString("organizer", "queryOnHandler");
                     b.putString("status", "data");
                     b.putString("type", "JsonObject");
-                    b.putString("data", new Gson().toJson(row));
+                    b.putString("data", GsonServiceStatic.getInstance().getDefault().toJson(row));
                     Message m = handler.obtainMessage();
                     m.setData(b);
                     m.sendToTarget();
                 }
             }
-            if(!autoCommit) conn.commit(); // commit
+            commit(savepoint); // commit
             {
                 // 傳送處理成功的資訊
                 Bundle b = new Bundle();
@@ -296,11 +513,7 @@ public class DatabaseAction {
             }
         } catch (Exception e) {
             e.printStackTrace();
-            try {
-                if(!autoCommit) conn.rollback(savepoint);
-            } catch (Exception ex) {
-                ex.printStackTrace();
-            }
+            rollback(savepoint);
             {
                 // 傳送處理失敗的資訊
                 Bundle b = new Bundle();
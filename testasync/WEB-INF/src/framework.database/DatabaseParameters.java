@@ -0,0 +1,139 @@
+package framework.database;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+
+/**
+ * 具有型態的 SQL 指令參數，依加入的順序對應 PreparedStatement 的 ? 位置
+ * -
+ * 相較於全部以 setString 綁定，資料庫不需要隱含轉型，整數、時間等欄位的索引才能正確使用
+ * -
+ * DatabaseParameters parameters = new DatabaseParameters()
+ *         .addLong(orderId)
+ *         .addTimestamp(new Timestamp(System.currentTimeMillis()))
+ *         .addNull(Types.INTEGER);
+ * new DatabaseAction.Builder().setSQL(sql).setTypedParameters(parameters)...
+ * -
+ * String, BigDecimal 等物件型態為 null 時以 setNull 及對應的 SQL 型態綁定
+ */
+public class DatabaseParameters {
+
+    private final ArrayList<Binder> binders = new ArrayList<>();
+
+    public DatabaseParameters addString(String value) {
+        if(null == value) return addNull(Types.VARCHAR);
+        binders.add((ps, index) -> ps.setString(index, value));
+        return this;
+    }
+
+    public DatabaseParameters addInt(int value) {
+        binders.add((ps, index) -> ps.setInt(index, value));
+        return this;
+    }
+
+    public DatabaseParameters addLong(long value) {
+        binders.add((ps, index) -> ps.setLong(index, value));
+        return this;
+    }
+
+    public DatabaseParameters addDouble(double value) {
+        binders.add((ps, index) -> ps.setDouble(index, value));
+        return this;
+    }
+
+    public DatabaseParameters addBoolean(boolean value) {
+        binders.add((ps, index) -> ps.setBoolean(index, value));
+        return this;
+    }
+
+    public DatabaseParameters addDecimal(BigDecimal value) {
+        if(null == value) return addNull(Types.DECIMAL);
+        binders.add((ps, index) -> ps.setBigDecimal(index, value));
+        return this;
+    }
+
+    public DatabaseParameters addDate(Date value) {
+        if(null == value) return addNull(Types.DATE);
+        binders.add((ps, index) -> ps.setDate(index, value));
+        return this;
+    }
+
+    public DatabaseParameters addTimestamp(Timestamp value) {
+        if(null == value) return addNull(Types.TIMESTAMP);
+        binders.add((ps, index) -> ps.setTimestamp(index, value));
+        return this;
+    }
+
+    public DatabaseParameters addBytes(byte[] value) {
+        if(null == value) return addNull(Types.VARBINARY);
+        binders.add((ps, index) -> ps.setBytes(index, value));
+        return this;
+    }
+
+    /**
+     * BLOB 等大型二進位內容，以串流寫入而不需要先讀取為 byte[]；
+     * length 為 -1 時表示無法得知長度（需要驅動程式支援）
+     */
+    public DatabaseParameters addBinaryStream(InputStream value, long length) {
+        if(null == value) return addNull(Types.BLOB);
+        binders.add((ps, index) -> {
+            if(length < 0) {
+                ps.setBinaryStream(index, value);
+            } else {
+                ps.setBinaryStream(index, value, length);
+            }
+        });
+        return this;
+    }
+
+    /**
+     * CLOB 等大型文字內容，以串流寫入而不需要先讀取為 String；
+     * length 為 -1 時表示無法得知長度（需要驅動程式支援）
+     */
+    public DatabaseParameters addCharacterStream(Reader value, long length) {
+        if(null == value) return addNull(Types.CLOB);
+        binders.add((ps, index) -> {
+            if(length < 0) {
+                ps.setCharacterStream(index, value);
+            } else {
+                ps.setCharacterStream(index, value, length);
+            }
+        });
+        return this;
+    }
+
+    /**
+     * 以指定的 SQL 型態（java.sql.Types）綁定 null
+     */
+    public DatabaseParameters addNull(int sqlType) {
+        binders.add((ps, index) -> ps.setNull(index, sqlType));
+        return this;
+    }
+
+    public int size() {
+        return binders.size();
+    }
+
+    public boolean isEmpty() {
+        return binders.isEmpty();
+    }
+
+    // PreparedStatement is start at 1 to N
+    void bind(PreparedStatement preparedStatement) throws SQLException {
+        for(int i = 0, len = binders.size(); i < len; i++) {
+            binders.get(i).bind(preparedStatement, i + 1);
+        }
+    }
+
+    private interface Binder {
+        void bind(PreparedStatement preparedStatement, int index) throws SQLException;
+    }
+
+}
@@ -0,0 +1,196 @@
+package framework.database;
+
+import framework.database.interfaces.ConnectionPool;
+import framework.web.context.CancellationToken;
+
+import java.sql.Connection;
+
+/**
+ * 以同一個 Connection 執行多個 DatabaseAction 的工作單元（unit of work），
+ * 整體只 commit / rollback 一次，close() 時才將 Connection 歸還連接池
+ * -
+ * try (DatabaseTransaction transaction = new DatabaseTransaction.Builder()
+ *         .setConnectionPool(ConnectionPoolStatic.getInstance())
+ *         .setCancellationToken(requestContext.getCancellationToken())
+ *         .build()) {
+ *     transaction.action().setSQL(sql_1).setParameters(params_1).build().update();
+ *     transaction.action().setSQL(sql_2).setParameters(params_2).build().update();
+ *     transaction.commit();
+ * }
+ * -
+ * 由 action() 建立的 DatabaseAction 不會自行 commit 或關閉 Connection；
+ * 未 commit 的內容會在 close() 時 rollback
+ */
+public class DatabaseTransaction implements AutoCloseable {
+
+    private Connection conn = null;
+    private CancellationToken cancellationToken = null;
+    private int originalIsolation = -1;
+    private boolean readOnly = false;
+    private boolean isPending = false; // 是否有尚未 commit 的操作
+    private boolean isClosed = false;
+
+    private DatabaseTransaction(Connection conn, int isolation, boolean readOnly, CancellationToken cancellationToken) {
+        this.cancellationToken = cancellationToken;
+        if(null == conn) {
+            try {
+                throw new Exception("資料庫連接為空值");
+            } catch (Exception e) {
+                e.printStackTrace();
+                this.isClosed = true;
+                return;
+            }
+        }
+        this.conn = conn;
+        try {
+            conn.setAutoCommit(false);
+            if(readOnly) {
+                conn.setReadOnly(true);
+                this.readOnly = true;
+            }
+            if(isolation >= 0 && conn.getTransactionIsolation() != isolation) {
+                this.originalIsolation = conn.getTransactionIsolation();
+                conn.setTransactionIsolation(isolation);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 建立使用此交易 Connection 的 DatabaseAction.Builder
+     */
+    public DatabaseAction.Builder action() {
+        return new DatabaseAction.Builder()
+                .setTransaction(this)
+                .setCancellationToken(cancellationToken);
+    }
+
+    public Connection getConnection() {
+        return this.conn;
+    }
+
+    public CancellationToken getCancellationToken() {
+        return this.cancellationToken;
+    }
+
+    public boolean isReadOnly() {
+        return this.readOnly;
+    }
+
+    public boolean isActive() {
+        return !isClosed;
+    }
+
+    /**
+     * 提交目前為止的操作，之後仍可繼續執行新的 DatabaseAction
+     */
+    public boolean commit() {
+        if(isClosed) {
+            System.err.println("交易已結束，無法 commit");
+            return false;
+        }
+        try {
+            conn.commit();
+            isPending = false;
+            return true;
+        } catch (Exception e) {
+            e.printStackTrace();
+            rollback();
+            return false;
+        }
+    }
+
+    /**
+     * 捨棄目前為止尚未提交的操作
+     */
+    public void rollback() {
+        if(isClosed) return;
+        try {
+            conn.rollback();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        isPending = false;
+    }
+
+    /**
+     * rollback 尚未提交的操作並將 Connection 歸還連接池，可重複呼叫
+     */
+    @Override
+    public void close() {
+        if(isClosed) return;
+        if(isPending) rollback();
+        isClosed = true;
+        try {
+            if(readOnly) conn.setReadOnly(false);
+            if(originalIsolation >= 0) conn.setTransactionIsolation(originalIsolation);
+        } catch (Exception e) {
+            // e.printStackTrace();
+        }
+        try {
+            if(!conn.isClosed()) conn.close();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    // 由 DatabaseAction 執行指令時通知
+    void markPending() {
+        this.isPending = true;
+    }
+
+    public static class Builder {
+
+        private Connection conn = null;
+        private ConnectionPool connectionPool = null;
+        private int isolation = -1;
+        private boolean readOnly = false;
+        private CancellationToken cancellationToken = null;
+
+        /**
+         * 由連接池借出 Connection，close() 時歸還
+         */
+        public DatabaseTransaction.Builder setConnectionPool(ConnectionPool connectionPool) {
+            this.connectionPool = connectionPool;
+            return this;
+        }
+
+        /**
+         * 直接指定 Connection，close() 時同樣會關閉（或歸還）該 Connection
+         */
+        public DatabaseTransaction.Builder setConnection(Connection connection) {
+            this.conn = connection;
+            return this;
+        }
+
+        /**
+         * Connection.TRANSACTION_READ_COMMITTED 等，未設定時使用 Connection 的預設值
+         */
+        public DatabaseTransaction.Builder setIsolation(int isolation) {
+            this.isolation = isolation;
+            return this;
+        }
+
+        /**
+         * 只包含查詢的交易，驅動程式可以據此使用唯讀的最佳化或導向 replica
+         */
+        public DatabaseTransaction.Builder setReadOnly(boolean readOnly) {
+            this.readOnly = readOnly;
+            return this;
+        }
+
+        public DatabaseTransaction.Builder setCancellationToken(CancellationToken cancellationToken) {
+            this.cancellationToken = cancellationToken;
+            return this;
+        }
+
+        public DatabaseTransaction build() {
+            Connection connection = this.conn;
+            if(null == connection && null != connectionPool) connection = connectionPool.getConnection();
+            return new DatabaseTransaction(connection, this.isolation, this.readOnly, this.cancellationToken);
+        }
+
+    }
+
+}
@@ -0,0 +1,251 @@
+package framework.database;
+
+import framework.thread.ThreadPoolStatic;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 以 SQL 指令字串為 key 的 PreparedStatement 快取，每個實際的資料庫連接各自保有一份 LRU 快取，
+ * 相同的 SQL 指令不需要每次都由資料庫重新 parse 及產生執行計畫
+ * -
+ * DatabaseAction 建立時以 prepare() 取出（不在快取時建立新的 PreparedStatement），
+ * 執行完畢時以 release() 放回快取；取出期間該 PreparedStatement 不在快取中，
+ * 同一個連接上同時使用相同 SQL 的 DatabaseAction 不會共用同一個 PreparedStatement
+ * -
+ * 快取對應的是連接池中的實際連接（Connection.unwrap），而不是每次借出的代理 Connection；
+ * 實際連接關閉時以 evict() 移除，未通知的已關閉連接由定期清理移除
+ */
+public class StatementCacheService {
+
+    private static final long SWEEP_INTERVAL = 60 * 1000; // 清理已關閉連接的頻率（ms）
+
+    private volatile boolean isEnabled = true;
+    private volatile int maxSize = 64; // 每個連接快取的 PreparedStatement 數量上限
+
+    private final ConcurrentHashMap<Connection, StatementCache> caches = new ConcurrentHashMap<>();
+    private final AtomicBoolean isSweeperStarted = new AtomicBoolean(false);
+
+    private final AtomicLong hitCount = new AtomicLong(0);
+    private final AtomicLong missCount = new AtomicLong(0);
+    private final AtomicLong evictionCount = new AtomicLong(0);
+
+    public void setEnabled(boolean isEnabled) {
+        this.isEnabled = isEnabled;
+        if(!isEnabled) clear();
+    }
+
+    public boolean isEnabled() {
+        return this.isEnabled;
+    }
+
+    /**
+     * 每個連接快取的 PreparedStatement 數量上限，超過時關閉最久未使用的 PreparedStatement
+     */
+    public void setMaxSize(int maxSize) {
+        if(maxSize <= 0) {
+            System.err.println("maxSize 必須是一個大於 0 的整數");
+            return;
+        }
+        this.maxSize = maxSize;
+    }
+
+    public int getMaxSize() {
+        return this.maxSize;
+    }
+
+    /**
+     * 由快取取出該 SQL 指令的 PreparedStatement，不在快取時建立新的 PreparedStatement
+     */
+    public PreparedStatement prepare(Connection conn, String sql) throws Exception {
+        if(!isEnabled) return conn.prepareStatement(sql);
+        startSweeper();
+        Connection physical = getPhysicalConnection(conn);
+        StatementCache cache = caches.computeIfAbsent(physical, key -> new StatementCache());
+        PreparedStatement preparedStatement = cache.take(sql);
+        if(null != preparedStatement) {
+            hitCount.incrementAndGet();
+            return preparedStatement;
+        }
+        missCount.incrementAndGet();
+        // 由實際連接建立，避免連接池於歸還連接時關閉（例如 StatementFinalizer）
+        return physical.prepareStatement(sql);
+    }
+
+    /**
+     * 將使用完畢的 PreparedStatement 放回快取，無法放回時關閉
+     */
+    public void release(Connection conn, String sql, PreparedStatement preparedStatement) {
+        if(null == preparedStatement) return;
+        try {
+            if(preparedStatement.isClosed()) return;
+            if(!isEnabled) {
+                preparedStatement.close();
+                return;
+            }
+            StatementCache cache = caches.get(getPhysicalConnection(conn));
+            if(null == cache) {
+                preparedStatement.close();
+                return;
+            }
+            preparedStatement.clearParameters();
+            cache.put(sql, preparedStatement);
+        } catch (Exception e) {
+            closeQuietly(preparedStatement);
+        }
+    }
+
+    /**
+     * 移除並關閉該連接快取的所有 PreparedStatement，實際連接關閉前呼叫
+     */
+    public void evict(Connection conn) {
+        if(null == conn) return;
+        StatementCache cache = caches.remove(getPhysicalConnection(conn));
+        if(null != cache) cache.clear();
+    }
+
+    public void clear() {
+        for(Connection conn : caches.keySet()) {
+            StatementCache cache = caches.remove(conn);
+            if(null != cache) cache.clear();
+        }
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * 命中率（0 ~ 1），尚未有任何請求時為 0
+     */
+    public double getHitRate() {
+        long hit = hitCount.get();
+        long total = hit + missCount.get();
+        return 0 == total ? 0 : (double) hit / total;
+    }
+
+    /**
+     * 因超過 maxSize 而被關閉的累計數量
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * 目前快取中的 PreparedStatement 數量（所有連接）
+     */
+    public int getCachedCount() {
+        int count = 0;
+        for(StatementCache cache : caches.values()) count += cache.size();
+        return count;
+    }
+
+    public int getConnectionCount() {
+        return caches.size();
+    }
+
+    // 連接池的代理 Connection 以 unwrap 取得實際連接
+    private Connection getPhysicalConnection(Connection conn) {
+        try {
+            if(conn.isWrapperFor(Connection.class)) {
+                Connection physical = conn.unwrap(Connection.class);
+                if(null != physical) return physical;
+            }
+        } catch (Exception e) {
+            // e.printStackTrace();
+        }
+        return conn;
+    }
+
+    private void startSweeper() {
+        if(!isSweeperStarted.compareAndSet(false, true)) return;
+        scheduleSweep();
+    }
+
+    // 關閉 PreparedStatement 可能需要與資料庫往返，交由 ThreadPool 執行而不佔用排程執行緒
+    private void scheduleSweep() {
+        ThreadPoolStatic.schedule(() -> ThreadPoolStatic.execute(() -> {
+            try {
+                sweep();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            scheduleSweep();
+        }), SWEEP_INTERVAL);
+    }
+
+    // 移除已關閉連接的快取
+    private void sweep() {
+        for(Connection conn : caches.keySet()) {
+            boolean isClosed;
+            try {
+                isClosed = conn.isClosed();
+            } catch (Exception e) {
+                isClosed = true;
+            }
+            if(!isClosed) continue;
+            StatementCache cache = caches.remove(conn);
+            if(null != cache) cache.clear();
+        }
+    }
+
+    private static void closeQuietly(PreparedStatement preparedStatement) {
+        try {
+            preparedStatement.close();
+        } catch (Exception e) {
+            // e.printStackTrace();
+        }
+    }
+
+    // 單一連接的 LRU 快取，連接同一時間只借給一個使用者，鎖定的競爭僅來自清理
+    private class StatementCache {
+
+        private final LinkedHashMap<String, PreparedStatement> statements = new LinkedHashMap<>(16, 0.75f, true);
+
+        private synchronized PreparedStatement take(String sql) throws Exception {
+            PreparedStatement preparedStatement = statements.remove(sql);
+            if(null != preparedStatement && preparedStatement.isClosed()) return null;
+            return preparedStatement;
+        }
+
+        private void put(String sql, PreparedStatement preparedStatement) {
+            ArrayList<PreparedStatement> evicted = new ArrayList<>();
+            synchronized (this) {
+                PreparedStatement previous = statements.put(sql, preparedStatement);
+                if(null != previous && previous != preparedStatement) evicted.add(previous);
+                while (statements.size() > maxSize) {
+                    Map.Entry<String, PreparedStatement> eldest = statements.entrySet().iterator().next();
+                    statements.remove(eldest.getKey());
+                    evicted.add(eldest.getValue());
+                    evictionCount.incrementAndGet();
+                }
+            }
+            for(PreparedStatement statement : evicted) closeQuietly(statement);
+        }
+
+        private synchronized int size() {
+            return statements.size();
+        }
+
+        private void clear() {
+            ArrayList<PreparedStatement> closing;
+            synchronized (this) {
+                closing = new ArrayList<>(statements.values());
+                statements.clear();
+            }
+            for(PreparedStatement statement : closing) closeQuietly(statement);
+        }
+
+    }
+
+}
@@ -0,0 +1,19 @@
+package framework.database;
+
+public class StatementCacheServiceStatic {
+
+    private static final StatementCacheService instance;
+
+    private StatementCacheServiceStatic() {}
+
+    static {
+        instance = new StatementCacheServiceStatic.Instance();
+    }
+
+    public static StatementCacheService getInstance() {
+        return instance;
+    }
+
+    private static class Instance extends StatementCacheService {}
+
+}
@@ -0,0 +1,144 @@
+package framework.file;
+
+import org.apache.tika.Tika;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 共用的 MIME 判斷服務，判斷順序為：
+ * 1. 副檔名對照表（不需要讀取檔案內容）
+ * 2. 以 (path, size, lastModified) 為 key 的 LRU 快取
+ * 3. 以共用的 Tika 實例讀取檔案內容判斷（Tika 為 thread-safe）
+ * -
+ * 副檔名對照表僅收錄常見且不易混淆的類型，不在表中的副檔名才會讀取檔案內容，
+ * 所以副檔名與實際內容不符的檔案會以副檔名為準
+ * https://developer.mozilla.org/en-US/docs/Web/HTTP/Basics_of_HTTP/MIME_types/Common_types
+ */
+public class MimeTypeService {
+
+    private static final String DEFAULT_MIME = "application/octet-stream";
+    private static final int MAX_CACHE_SIZE = 1024;
+
+    private final Tika tika = new Tika();
+    private final HashMap<String, String> extensions = new HashMap<>();
+    private final LinkedHashMap<String, String> cache = new LinkedHashMap<String, String>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > MAX_CACHE_SIZE;
+        }
+    };
+
+    public MimeTypeService() {
+        // text
+        extensions.put("html", "text/html");
+        extensions.put("htm", "text/html");
+        extensions.put("css", "text/css");
+        extensions.put("csv", "text/csv");
+        extensions.put("txt", "text/plain");
+        extensions.put("xml", "application/xml");
+        // 在 HTML5 中，text/javascript 已被棄用，官方建議使用 application/javascript 代替
+        extensions.put("js", "application/javascript");
+        extensions.put("mjs", "application/javascript");
+        extensions.put("json", "application/json");
+        extensions.put("map", "application/json");
+        // image
+        extensions.put("png", "image/png");
+        extensions.put("jpg", "image/jpeg");
+        extensions.put("jpeg", "image/jpeg");
+        extensions.put("gif", "image/gif");
+        extensions.put("webp", "image/webp");
+        extensions.put("svg", "image/svg+xml");
+        extensions.put("ico", "image/vnd.microsoft.icon");
+        extensions.put("bmp", "image/bmp");
+        // font
+        extensions.put("woff", "font/woff");
+        extensions.put("woff2", "font/woff2");
+        extensions.put("ttf", "font/ttf");
+        extensions.put("otf", "font/otf");
+        // audio, video
+        extensions.put("mp3", "audio/mpeg");
+        extensions.put("wav", "audio/wav");
+        extensions.put("mp4", "video/mp4");
+        extensions.put("webm", "video/webm");
+        // document
+        extensions.put("pdf", "application/pdf");
+        extensions.put("zip", "application/zip");
+        extensions.put("gz", "application/gzip");
+        extensions.put("doc", "application/msword");
+        extensions.put("docx", "application/vnd.openxmlformats-officedocument.wordprocessingml.document");
+        extensions.put("xls", "application/vnd.ms-excel");
+        extensions.put("xlsx", "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet");
+        extensions.put("ppt", "application/vnd.ms-powerpoint");
+        extensions.put("pptx", "application/vnd.openxmlformats-officedocument.presentationml.presentation");
+    }
+
+    /**
+     * 新增或覆寫副檔名對照（副檔名不包含 "."）
+     */
+    public void putExtension(String extension, String mimeType) {
+        if(null == extension || null == mimeType) return;
+        synchronized (extensions) {
+            extensions.put(extension.toLowerCase(Locale.ENGLISH), mimeType);
+        }
+    }
+
+    /**
+     * 僅以檔案名稱的副檔名判斷，不在對照表中時回傳 null
+     */
+    public String detectByName(String fileName) {
+        if(null == fileName) return null;
+        int index = fileName.lastIndexOf('.');
+        if(index < 0 || index == fileName.length() - 1) return null;
+        String extension = fileName.substring(index + 1).toLowerCase(Locale.ENGLISH);
+        synchronized (extensions) {
+            return extensions.get(extension);
+        }
+    }
+
+    /**
+     * 判斷檔案的 MIME，無法判斷時回傳 application/octet-stream
+     */
+    public String detect(File file) {
+        if(null == file) return DEFAULT_MIME;
+        String mime = detectByName(file.getName());
+        if(null != mime) return mime;
+        String key = file.getPath() + "|" + file.length() + "|" + file.lastModified();
+        synchronized (cache) {
+            mime = cache.get(key);
+        }
+        if(null != mime) return mime;
+        try {
+            mime = tika.detect(file);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        if(null == mime || mime.isEmpty()) mime = DEFAULT_MIME;
+        synchronized (cache) {
+            cache.put(key, mime);
+        }
+        return mime;
+    }
+
+    /**
+     * 以檔案名稱及 InputStream 內容判斷 MIME，副檔名可判斷時不會讀取 InputStream；
+     * 讀取內容時若 InputStream 不支援 mark，被讀取的前段內容將無法回復
+     */
+    public String detect(InputStream inputStream, String fileName) {
+        String mime = detectByName(fileName);
+        if(null != mime) return mime;
+        if(null == inputStream) return DEFAULT_MIME;
+        try {
+            mime = tika.detect(inputStream);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        if(null == mime || mime.isEmpty()) return DEFAULT_MIME;
+        return mime;
+    }
+
+}
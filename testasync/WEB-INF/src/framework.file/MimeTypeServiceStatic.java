@@ -0,0 +1,19 @@
+package framework.file;
+
+public class MimeTypeServiceStatic {
+
+    private static final MimeTypeService instance;
+
+    private MimeTypeServiceStatic() {}
+
+    static {
+        instance = new MimeTypeServiceStatic.Instance();
+    }
+
+    public static MimeTypeService getInstance() {
+        return instance;
+    }
+
+    private static class Instance extends MimeTypeService {}
+
+}
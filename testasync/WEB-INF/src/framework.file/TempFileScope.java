@@ -0,0 +1,64 @@
+package framework.file;
+
+import java.io.File;
+import java.util.ArrayList;
+
+/**
+ * 單一請求建立的暫存檔，請求結束（AsyncContext complete 或 error）時由 deleteAll() 一併刪除，
+ * 取代 File.deleteOnExit()（長時間運作的伺服器會在 JVM 內累積無上限的待刪除清單）
+ * -
+ * 需要保留的暫存檔（例如直接搬移使用）應以 keep() 移出管理
+ */
+public class TempFileScope {
+
+    private final TempFileService service;
+    private final ArrayList<File> files = new ArrayList<>();
+    private boolean isClosed = false;
+
+    TempFileScope(TempFileService service) {
+        this.service = service;
+    }
+
+    /**
+     * 登記暫存檔，若此範圍已結束則立即刪除並回傳 false
+     */
+    public boolean track(File file) {
+        if(null == file) return false;
+        synchronized (files) {
+            if(!isClosed) {
+                files.add(file);
+                service.markActive(file);
+                return true;
+            }
+        }
+        service.delete(file);
+        return false;
+    }
+
+    /**
+     * 移出管理，請求結束時不會刪除此檔案
+     */
+    public void keep(File file) {
+        if(null == file) return;
+        synchronized (files) {
+            if(files.remove(file)) service.markInactive(file);
+        }
+    }
+
+    /**
+     * 刪除所有登記的暫存檔，可重複呼叫
+     */
+    public void deleteAll() {
+        ArrayList<File> list;
+        synchronized (files) {
+            isClosed = true;
+            list = new ArrayList<>(files);
+            files.clear();
+        }
+        for(File file : list) {
+            service.delete(file);
+            service.markInactive(file);
+        }
+    }
+
+}
@@ -0,0 +1,262 @@
+package framework.file;
+
+import framework.logs.LoggerService;
+import framework.thread.ThreadPoolStatic;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 管理 WebAppFiles/{app_name}/temp 之中的暫存檔
+ * -
+ * 每個請求以 createScope() 取得 TempFileScope，請求結束時刪除該請求的暫存檔；
+ * 因程式中斷等原因未被刪除的檔案，由 startSweeper() 定時清除超過 maxAge 且不屬於任何進行中請求的檔案
+ * -
+ * 請求內容（RequestBody）不超過 memoryThreshold 時保留於記憶體中，不會建立暫存檔
+ */
+public class TempFileService {
+
+    private volatile Path tempDir = null;
+    private final Set<String> active = ConcurrentHashMap.newKeySet(); // 進行中請求的暫存檔路徑
+
+    private volatile long memoryThreshold = 64 * 1024;
+    private volatile long maxAge = 60 * 60 * 1000;
+    private volatile long sweepInterval = 10 * 60 * 1000;
+    private volatile boolean isSweeping = false;
+    private ScheduledFuture<?> sweepFuture = null;
+
+    private final AtomicLong createCount = new AtomicLong(0);
+    private final AtomicLong deleteCount = new AtomicLong(0);
+    private final AtomicLong sweepCount = new AtomicLong(0);
+
+    /**
+     * 暫存資料夾位置，不存在時建立；尚未建立 WebAppFiles 資料夾時回傳 null
+     */
+    public Path getTempDir() {
+        Path dir = this.tempDir;
+        if(null == dir) {
+            synchronized (this) {
+                dir = this.tempDir;
+                if(null == dir) {
+                    File app_dir = new FileFinder.Builder().build().find("WEB-INF").getParentFile();
+                    String app_name = app_dir.getName();
+                    File app_temp_dir = new FileFinder.Builder().build().find("WebAppFiles");
+                    if(null == app_temp_dir) {
+                        LoggerService.logERROR("尚未建立 WebAppFiles 資料夾");
+                        System.err.println("尚未建立 WebAppFiles 資料夾");
+                        return null;
+                    }
+                    String dir_slash = System.getProperty("file.separator");
+                    dir = Paths.get(app_temp_dir + dir_slash + app_name + dir_slash + "temp");
+                    this.tempDir = dir;
+                }
+            }
+        }
+        if(!dir.toFile().exists()) dir.toFile().mkdirs();
+        return dir;
+    }
+
+    public TempFileScope createScope() {
+        return new TempFileScope(this);
+    }
+
+    /**
+     * 於暫存資料夾中建立檔案並登記於 scope（scope 為 null 時僅由 sweeper 清除）
+     */
+    public File createTempFile(String fileName, TempFileScope scope) throws IOException {
+        Path dir = getTempDir();
+        if(null == dir) throw new IOException("尚未建立 WebAppFiles 資料夾");
+        File file = dir.resolve(fileName).toFile();
+        if(!file.createNewFile()) throw new IOException("暫存檔已存在：" + file.getPath());
+        createCount.incrementAndGet();
+        if(null != scope) scope.track(file);
+        return file;
+    }
+
+    /**
+     * 刪除暫存資料夾中所有的檔案（例如伺服器啟動時），回傳刪除數量
+     */
+    public int clear() {
+        Path dir = getTempDir();
+        if(null == dir) return 0;
+        int count = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path path : stream) {
+                if(active.contains(path.toString())) continue;
+                if(delete(path.toFile())) count++;
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return count;
+    }
+
+    /**
+     * 設定請求內容保留於記憶體的大小上限（bytes），超過時才寫入暫存檔，0 表示一律寫入暫存檔
+     */
+    public void setMemoryThreshold(long memoryThreshold) {
+        if(memoryThreshold < 0) {
+            System.err.println("memoryThreshold 必須是一個不小於 0 的整數");
+            return;
+        }
+        this.memoryThreshold = memoryThreshold;
+    }
+
+    public long getMemoryThreshold() {
+        return this.memoryThreshold;
+    }
+
+    /**
+     * 設定孤兒暫存檔的存活時間（ms），超過此時間且不屬於進行中請求的檔案會被 sweeper 刪除
+     */
+    public void setMaxAge(long maxAge) {
+        if(maxAge <= 0) {
+            System.err.println("maxAge 必須是一個大於 0 的整數");
+            return;
+        }
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * 設定 sweeper 執行間隔（ms）
+     */
+    public void setSweepInterval(long sweepInterval) {
+        if(sweepInterval <= 0) {
+            System.err.println("sweepInterval 必須是一個大於 0 的整數");
+            return;
+        }
+        this.sweepInterval = sweepInterval;
+    }
+
+    public synchronized void startSweeper() {
+        if(isSweeping) return;
+        isSweeping = true;
+        scheduleSweep();
+    }
+
+    public synchronized void shutdown() {
+        isSweeping = false;
+        if(null != sweepFuture) {
+            sweepFuture.cancel(false);
+            sweepFuture = null;
+        }
+    }
+
+    // 走訪及刪除檔案屬於磁碟 I/O，交由 ThreadPool 執行而不佔用排程執行緒，完成後由工作執行緒排定下一次
+    private synchronized void scheduleSweep() {
+        if(!isSweeping) return;
+        sweepFuture = ThreadPoolStatic.schedule(() -> ThreadPoolStatic.execute(() -> {
+            try {
+                sweep();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            scheduleSweep();
+        }), sweepInterval);
+    }
+
+    /**
+     * 立即清除過期的孤兒暫存檔，回傳刪除數量
+     */
+    public int sweep() {
+        Path dir = getTempDir();
+        if(null == dir) return 0;
+        long expire = System.currentTimeMillis() - maxAge;
+        int count = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path path : stream) {
+                if(active.contains(path.toString())) continue;
+                File file = path.toFile();
+                if(file.lastModified() > expire) continue;
+                if(delete(file)) count++;
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        sweepCount.addAndGet(count);
+        return count;
+    }
+
+    /**
+     * 暫存資料夾目前使用的空間（bytes）
+     */
+    public long getDiskUsage() {
+        Path dir = getTempDir();
+        if(null == dir) return 0;
+        long size = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path path : stream) {
+                size += path.toFile().length();
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return size;
+    }
+
+    /**
+     * 暫存資料夾目前的檔案數量
+     */
+    public int getFileCount() {
+        Path dir = getTempDir();
+        if(null == dir) return 0;
+        int count = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path ignored : stream) count++;
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return count;
+    }
+
+    /**
+     * 屬於進行中請求的暫存檔數量
+     */
+    public int getActiveCount() {
+        return active.size();
+    }
+
+    public long getCreateCount() {
+        return createCount.get();
+    }
+
+    public long getDeleteCount() {
+        return deleteCount.get();
+    }
+
+    /**
+     * 由 sweeper 刪除的孤兒暫存檔累計數量
+     */
+    public long getSweepCount() {
+        return sweepCount.get();
+    }
+
+    void markActive(File file) {
+        active.add(file.getPath());
+    }
+
+    void markInactive(File file) {
+        active.remove(file.getPath());
+    }
+
+    boolean delete(File file) {
+        try {
+            if(Files.deleteIfExists(file.toPath())) {
+                deleteCount.incrementAndGet();
+                return true;
+            }
+        } catch (Exception e) {
+            // e.printStackTrace();
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,19 @@
+package framework.file;
+
+public class TempFileServiceStatic {
+
+    private static final TempFileService instance;
+
+    private TempFileServiceStatic() {}
+
+    static {
+        instance = new TempFileServiceStatic.Instance();
+    }
+
+    public static TempFileService getInstance() {
+        return instance;
+    }
+
+    private static class Instance extends TempFileService {}
+
+}
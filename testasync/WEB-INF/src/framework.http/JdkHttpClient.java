@@ -1,11 +1,11 @@
 package framework.http;
 
-import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 import framework.observer.Bundle;
 import framework.observer.Handler;
 import framework.observer.Message;
 import framework.random.RandomServiceStatic;
+import framework.text.GsonServiceStatic;
 import framework.thread.ThreadPoolStatic;
 
 import javax.net.ssl.SSLContext;
@@ -237,7 +237,7 @@ public class JdkHttpClient {
             // 此方法則採用 raw 內容方式夾帶 JSON 字串
             requestBuilder.setHeader("Content-Type","application/json;charset=utf-8");
             if (null != obj) {
-                requestBuilder.POST(HttpRequest.BodyPublishers.ofString(new Gson().toJson(obj), StandardCharsets.UTF_8));
+                requestBuilder.POST(HttpRequest.BodyPublishers.ofString(GsonServiceStatic.getInstance().getDefault().toJson(obj), StandardCharsets.UTF_8));
             } else {
                 requestBuilder.POST(HttpRequest.BodyPublishers.noBody());
             }
@@ -489,7 +489,7 @@ public class JdkHttpClient {
                 for(Map.Entry<String, String> entry : resp_header.entrySet()) {
                     obj.addProperty(entry.getKey(), entry.getValue());
                 }
-                b.put("headers", new Gson().toJson(obj));
+                b.put("headers", GsonServiceStatic.getInstance().getDefault().toJson(obj));
                 if (resp_header.containsKey("content_type")) b.put("content_type", resp_header.get("content_type"));
                 if (resp_header.containsKey("content_disposition")) b.put("content_disposition", resp_header.get("content_disposition"));
             }
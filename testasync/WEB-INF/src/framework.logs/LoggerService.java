@@ -1,7 +1,7 @@
 package framework.logs;
 
-import com.google.gson.Gson;
 import com.google.gson.JsonObject;
+import framework.text.GsonServiceStatic;
 
 import java.io.File;
 import java.io.FileWriter;
@@ -77,11 +77,12 @@ public class LoggerService {
         if(logFile.exists() && logFile.isFile()) {
             try {
                 JsonObject obj = createLogObj(level, msg);
-                if( var_holder.console_output ) System.out.println(new Gson().toJson(obj));
+                String log_str = GsonServiceStatic.getInstance().getDefault().toJson(obj);
+                if( var_holder.console_output ) System.out.println(log_str);
                 // true = 尾端 append；false = 不進行 append
                 fw = new FileWriter(logFile, true);
                 String sys_new_line = System.lineSeparator();
-                fw.write(new Gson().toJson(obj) + sys_new_line);
+                fw.write(log_str + sys_new_line);
                 fw.flush();
             } catch(Exception e) {
                 e.printStackTrace();
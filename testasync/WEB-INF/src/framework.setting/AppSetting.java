@@ -1,9 +1,9 @@
 package framework.setting;
 
-import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 import framework.file.FileFinder;
+import framework.text.GsonServiceStatic;
 import framework.web.servlet.ServletContextStatic;
 
 import java.io.BufferedReader;
@@ -95,7 +95,7 @@ public class AppSetting {
                 if (null != content && !content.isEmpty()) {
                     {
                         try {
-                            res = new Gson().fromJson(content, JsonObject.class);
+                            res = GsonServiceStatic.getInstance().getDefault().fromJson(content, JsonObject.class);
                         } catch (Exception e) {
                             e.printStackTrace();
                             res = null;
@@ -104,7 +104,7 @@ public class AppSetting {
                     if (null == res) {
                         try {
                             res = new JsonObject();
-                            res.add("config", new Gson().fromJson(content, JsonArray.class));
+                            res.add("config", GsonServiceStatic.getInstance().getDefault().fromJson(content, JsonArray.class));
                         } catch (Exception e) {
                             e.printStackTrace();
                             res = null;;
@@ -0,0 +1,69 @@
+package framework.text;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 共用的 Gson 實例，以名稱區分不同的序列化設定
+ * -
+ * Gson 建立時需要初始化型別轉換器等內部結構，每次 new Gson() 的成本遠高於序列化本身，
+ * 且建立後為 thread-safe，應重複使用；新增設定時以 register() 登記，不要在每次呼叫時建立
+ * -
+ * PROFILE_DEFAULT -> 與 new Gson() 相同
+ * PROFILE_RESPONSE -> 不轉換 html 字元（disableHtmlEscaping）且序列化 null 值，用於輸出至前端的內容
+ */
+public class GsonService {
+
+    public static final String PROFILE_DEFAULT = "default";
+    public static final String PROFILE_RESPONSE = "response";
+
+    private final ConcurrentHashMap<String, Gson> profiles = new ConcurrentHashMap<>();
+    private final Gson defaultGson;
+
+    public GsonService() {
+        this.defaultGson = new Gson();
+        profiles.put(PROFILE_DEFAULT, defaultGson);
+        profiles.put(PROFILE_RESPONSE, new GsonBuilder()
+                .disableHtmlEscaping()
+                .serializeNulls()
+                .create());
+    }
+
+    /**
+     * 登記（或取代）一組序列化設定
+     */
+    public void register(String name, GsonBuilder builder) {
+        if(null == name || name.isEmpty() || null == builder) {
+            System.err.println("必須設定 profile 名稱及 GsonBuilder");
+            return;
+        }
+        profiles.put(name, builder.create());
+    }
+
+    /**
+     * 取得指定名稱的 Gson，不存在時回傳預設的 Gson
+     */
+    public Gson get(String name) {
+        if(null == name) return defaultGson;
+        Gson gson = profiles.get(name);
+        if(null == gson) {
+            System.err.println("尚未登記的 Gson profile：" + name);
+            return defaultGson;
+        }
+        return gson;
+    }
+
+    public Gson getDefault() {
+        return defaultGson;
+    }
+
+    /**
+     * 輸出至前端使用的 Gson
+     */
+    public Gson getResponse() {
+        return profiles.get(PROFILE_RESPONSE);
+    }
+
+}
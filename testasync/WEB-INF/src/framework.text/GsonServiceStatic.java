@@ -0,0 +1,19 @@
+package framework.text;
+
+public class GsonServiceStatic {
+
+    private static final GsonService instance;
+
+    private GsonServiceStatic() {}
+
+    static {
+        instance = new GsonServiceStatic.Instance();
+    }
+
+    public static GsonService getInstance() {
+        return instance;
+    }
+
+    private static class Instance extends GsonService {}
+
+}
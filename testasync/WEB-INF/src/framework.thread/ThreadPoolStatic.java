@@ -1,21 +1,42 @@
 package framework.thread;
 
+import java.lang.reflect.Method;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Public Thread Pool
+ * -
+ * 可藉由 setMode() 於第一次使用前選擇執行緒模式：
+ * cached -> Executors.newCachedThreadPool()，預設值，執行緒數量不受限制
+ * bounded -> ThreadPoolExecutor，限制最大執行緒數量及等待佇列大小
+ * virtual -> 每個任務一個 Virtual Thread（JDK 21+），不支援時自動退回 cached 模式
+ * -
+ * 採用 virtual 模式時 DatabaseAction 的 JDBC 及 getRequestByteContent 等阻塞讀取，
+ * 只要不在 synchronized 區塊中執行就不會占用 carrier thread
+ * -
+ * 請求入口應採用 tryExecute()，當 bounded 模式的等待佇列已滿時會回傳 false，
+ * 由呼叫端以 503 + Retry-After 回應，而不是讓該請求無聲無息的被丟棄
  */
 public class ThreadPoolStatic {
 
+    public static final String MODE_CACHED = "cached";
+    public static final String MODE_BOUNDED = "bounded";
+    public static final String MODE_VIRTUAL = "virtual";
+
     private ThreadPoolStatic() {}
 
     public static ExecutorService getInstance() {
-        if(null == StaticHolder.worker && !StaticHolder.isShutdown) {
-            StaticHolder.worker = Executors.newCachedThreadPool();
-        }
-        if(null == StaticHolder.worker) {
+        ExecutorService worker = getWorker();
+        if(null == worker) {
             try {
                 throw new Exception("已關閉 ThreadPool");
             } catch (Exception e) {
@@ -23,15 +44,13 @@ public class ThreadPoolStatic {
             }
             return null;
         }
-        return StaticHolder.worker;
+        return worker;
     }
 
     // execute with check rejected exception
     public static void execute(Runnable runnable) {
-        if(null == StaticHolder.worker && !StaticHolder.isShutdown) {
-            StaticHolder.worker = Executors.newCachedThreadPool();
-        }
-        if(null == StaticHolder.worker) {
+        ExecutorService worker = getWorker();
+        if(null == worker) {
             try {
                 throw new Exception("已關閉 ThreadPool");
             } catch (Exception e) {
@@ -40,8 +59,9 @@ public class ThreadPoolStatic {
             return;
         }
         try {
-            StaticHolder.worker.execute(runnable);
-        } catch (java.util.concurrent.RejectedExecutionException e) {
+            worker.execute(runnable);
+        } catch (RejectedExecutionException e) {
+            StaticHolder.rejectedCount.incrementAndGet();
             System.err.println("目前有太多的 Thread，Thread Pool 無法再接收處理新的 Runnable 事件");
             e.printStackTrace();
         } catch (Exception e) {
@@ -49,6 +69,134 @@ public class ThreadPoolStatic {
         }
     }
 
+    /**
+     * 嘗試執行 Runnable，當 ThreadPool 已關閉或已滿載（bounded 模式）時回傳 false，
+     * 呼叫端應自行處理無法執行的任務（例如回應 503 Service Unavailable）
+     */
+    public static boolean tryExecute(Runnable runnable) {
+        ExecutorService worker = getWorker();
+        if(null == worker) return false;
+        try {
+            worker.execute(runnable);
+            return true;
+        } catch (RejectedExecutionException e) {
+            StaticHolder.rejectedCount.incrementAndGet();
+            return false;
+        }
+    }
+
+    /**
+     * 設定任務於佇列中等待的最長時間（ms），超過時該請求將不再被處理而直接回應 503，
+     * 設置為 0 時表示無等待時間限制（預設值）
+     */
+    public static void setMaxQueueWait(long milliSecond) {
+        if(milliSecond < 0) {
+            System.err.println("佇列等待時間必須是一個不小於 0 的整數");
+            return;
+        }
+        StaticHolder.maxQueueWait = milliSecond;
+    }
+
+    public static long getMaxQueueWait() {
+        return StaticHolder.maxQueueWait;
+    }
+
+    /**
+     * 設定滿載時回應 503 的 Retry-After 秒數
+     */
+    public static void setRetryAfter(int second) {
+        if(second <= 0) {
+            System.err.println("Retry-After 秒數必須是一個大於 0 的整數");
+            return;
+        }
+        StaticHolder.retryAfter = second;
+    }
+
+    public static int getRetryAfter() {
+        return StaticHolder.retryAfter;
+    }
+
+    /**
+     * 被拒絕（滿載或逾時）的任務累計數量
+     */
+    public static long getRejectedCount() {
+        return StaticHolder.rejectedCount.get();
+    }
+
+    /**
+     * 任務於佇列等待逾時而未被執行時，由執行端呼叫以計入被拒絕的數量
+     */
+    public static void markRejected() {
+        StaticHolder.rejectedCount.incrementAndGet();
+    }
+
+    /**
+     * 延遲執行（ms），用於請求逾時等計時工作，
+     * 由單一個 daemon thread 負責計時，Runnable 內容應儘量簡短
+     */
+    public static ScheduledFuture<?> schedule(Runnable runnable, long milliSecond) {
+        ScheduledThreadPoolExecutor scheduler = getScheduler();
+        if(null == scheduler) return null;
+        try {
+            return scheduler.schedule(runnable, milliSecond, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * 設定執行緒模式：cached, bounded, virtual
+     * 必須在 ThreadPool 初始化之前設定（例如 AppContextListener 之中），已初始化後設定則無效
+     */
+    public static void setMode(String mode) {
+        if(null == mode || mode.isEmpty()) return;
+        String _mode = mode.toLowerCase(Locale.ENGLISH);
+        if(!MODE_CACHED.equals(_mode) && !MODE_BOUNDED.equals(_mode) && !MODE_VIRTUAL.equals(_mode)) {
+            try {
+                throw new Exception("不支援的 ThreadPool 模式：" + mode);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            return;
+        }
+        if(null != StaticHolder.worker) {
+            System.err.println("ThreadPool 已初始化，目前模式為 " + StaticHolder.mode + "，無法變更為 " + _mode);
+            return;
+        }
+        StaticHolder.mode = _mode;
+    }
+
+    public static String getMode() {
+        return StaticHolder.mode;
+    }
+
+    /**
+     * bounded 模式的執行緒數量設定
+     * corePoolSize 閒置時保持的執行緒數量；maximumPoolSize 完全運作時的執行緒數量上限；
+     * queueSize 執行緒皆忙碌時的等待佇列大小
+     */
+    public static void setBoundedPoolSize(int corePoolSize, int maximumPoolSize, int queueSize) {
+        if(corePoolSize < 0 || maximumPoolSize <= 0 || maximumPoolSize < corePoolSize || queueSize <= 0) {
+            System.err.println("bounded ThreadPool 設定值必須為正整數，且 maximumPoolSize 不可小於 corePoolSize");
+            return;
+        }
+        StaticHolder.corePoolSize = corePoolSize;
+        StaticHolder.maximumPoolSize = maximumPoolSize;
+        StaticHolder.queueSize = queueSize;
+    }
+
+    /**
+     * 目前正在執行中的執行緒數量，virtual 模式不具有此資訊時回傳 -1
+     */
+    public static int getActiveCount() {
+        ExecutorService worker = StaticHolder.worker;
+        if(worker instanceof ThreadPoolExecutor) {
+            return ((ThreadPoolExecutor) worker).getActiveCount();
+        }
+        return -1;
+    }
+
     // 實作完整回收 ExecutorService 方式
     // http://blog.csdn.net/xueyepiaoling/article/details/61200270
     public static void shutdown() {
@@ -70,6 +218,68 @@ public class ThreadPoolStatic {
             StaticHolder.worker = null;
             StaticHolder.isShutdown = true;
         }
+        ScheduledThreadPoolExecutor scheduler = StaticHolder.scheduler;
+        if (null != scheduler) {
+            scheduler.shutdownNow();
+            StaticHolder.scheduler = null;
+            StaticHolder.isShutdown = true;
+        }
+    }
+
+    private static ScheduledThreadPoolExecutor getScheduler() {
+        if(null == StaticHolder.scheduler && !StaticHolder.isShutdown) {
+            synchronized (StaticHolder.class) {
+                if(null == StaticHolder.scheduler && !StaticHolder.isShutdown) {
+                    ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+                        Thread thread = new Thread(runnable, "ThreadPoolStatic-scheduler");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                    // 被取消的計時工作立即移出佇列，避免大量已完成請求的計時工作佔用記憶體
+                    scheduler.setRemoveOnCancelPolicy(true);
+                    StaticHolder.scheduler = scheduler;
+                }
+            }
+        }
+        return StaticHolder.scheduler;
+    }
+
+    // 延遲初始化，確保多個請求同時進入時只會建立一個 ExecutorService
+    private static ExecutorService getWorker() {
+        if(null == StaticHolder.worker && !StaticHolder.isShutdown) {
+            synchronized (StaticHolder.class) {
+                if(null == StaticHolder.worker && !StaticHolder.isShutdown) {
+                    StaticHolder.worker = createWorker(StaticHolder.mode);
+                }
+            }
+        }
+        return StaticHolder.worker;
+    }
+
+    private static ExecutorService createWorker(String mode) {
+        if(MODE_VIRTUAL.equals(mode)) {
+            // 以 reflection 調用，使此類別在 JDK 21 以前的版本仍可正常編譯
+            try {
+                Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                return (ExecutorService) method.invoke(null);
+            } catch (Exception e) {
+                System.err.println("目前的 JDK 不支援 Virtual Threads，ThreadPool 改採用 cached 模式");
+                StaticHolder.mode = MODE_CACHED;
+                return Executors.newCachedThreadPool();
+            }
+        }
+        if(MODE_BOUNDED.equals(mode)) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                    StaticHolder.corePoolSize,
+                    StaticHolder.maximumPoolSize,
+                    60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(StaticHolder.queueSize)
+            );
+            // 閒置時也回收 core thread，避免離峰時段保留過多的執行緒
+            executor.allowCoreThreadTimeOut(true);
+            return executor;
+        }
+        return Executors.newCachedThreadPool();
     }
 
     /**
@@ -77,9 +287,23 @@ public class ThreadPoolStatic {
      */
     private static class StaticHolder {
         // 藉由此 flag 判斷關閉依據
-        public static boolean isShutdown = false;
+        public static volatile boolean isShutdown = false;
         // ThreadPool 實例
-        public static ExecutorService worker = null;
+        public static volatile ExecutorService worker = null;
+        // 計時工作
+        public static volatile ScheduledThreadPoolExecutor scheduler = null;
+        // 執行緒模式
+        public static volatile String mode = MODE_CACHED;
+        // bounded 模式設定值
+        public static int corePoolSize = Runtime.getRuntime().availableProcessors() * 2;
+        public static int maximumPoolSize = Runtime.getRuntime().availableProcessors() * 32;
+        public static int queueSize = Runtime.getRuntime().availableProcessors() * 256;
+        // 佇列等待時間上限（ms），0 表示無限制
+        public static volatile long maxQueueWait = 0;
+        // 滿載時回應的 Retry-After 秒數
+        public static volatile int retryAfter = 5;
+        // 被拒絕的任務數量
+        public static final AtomicLong rejectedCount = new AtomicLong(0);
     }
 
 }
@@ -1,36 +1,48 @@
 package framework.web.context;
 
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
-import framework.file.FileFinder;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import framework.bytebuf.ByteBufferBackedInputStream;
+import framework.bytebuf.FileRangeInputStream;
+import framework.bytebuf.PooledByteBufferOutputStream;
+import framework.file.MimeTypeServiceStatic;
+import framework.file.TempFileScope;
+import framework.file.TempFileServiceStatic;
 import framework.logs.LoggerService;
 import framework.observer.Bundle;
 import framework.observer.Handler;
 import framework.observer.Message;
 import framework.random.RandomServiceStatic;
-import framework.text.TextFileWriter;
+import framework.text.GsonServiceStatic;
+import framework.thread.ThreadPoolStatic;
+import framework.web.executor.WebAppServicePoolStatic;
+import framework.web.handler.RequestHandler;
+import framework.web.handler.RequestHandlerChain;
 import framework.web.listener.AsyncWriteListener;
 import framework.web.multipart.FileItem;
 import framework.web.multipart.FileItemList;
+import framework.web.resource.StaticResource;
 import jakarta.servlet.*;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import jakarta.servlet.http.HttpSession;
-import org.apache.tika.Tika;
 
 import java.io.*;
 import java.lang.ref.WeakReference;
 import java.net.URI;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * 請求封裝層類別關係：
@@ -41,6 +53,8 @@ import java.util.*;
  */
 public class AsyncActionContext {
 
+    private static final long SENDFILE_MIN_SIZE = 48 * 1024; // 與 Tomcat DefaultServlet sendfileSize 預設值相同
+
     private final ServletContext servletContext;
     private final ServletConfig servletConfig;
     private final AsyncContext asyncContext;
@@ -58,15 +72,23 @@ public class AsyncActionContext {
     private Handler appExceptionHandler; // for request all exception
     private Handler invalidRequestHandler; // for invalid request(no handler processed)
 
-    private String asyncStatus = "onProcess"; // 該請求的 AsyncContext 狀態目前為何
-    private boolean isComplete = false; // 這個 AsyncContext 是否已被 complete
-    private boolean isOutput = false; // 限制每個 AsyncContext 只能輸出一次資料的機制
+    private volatile String asyncStatus = "onProcess"; // 該請求的 AsyncContext 狀態目前為何
+    private volatile boolean isComplete = false; // 這個 AsyncContext 是否已被 complete
+    private final AtomicBoolean isOutput = new AtomicBoolean(false); // 限制每個 AsyncContext 只能輸出一次資料的機制，以 compareAndSet 取得輸出權
+
+    private final CancellationToken cancellationToken = new CancellationToken(); // 逾時或錯誤時取消該請求的工作
+    private ScheduledFuture<?> timeoutFuture = null; // 請求逾時計時
+    private long requestTimeout = 0; // 目前採用的請求逾時時間（ms）
 
-    private File temp_file_req_text = null; // 暫存的請求內容純文字檔
-    private File temp_file_req_byte = null; // 暫存的請求內容二進位檔
+    private volatile RequestBody requestBody = null; // 已讀取的請求內容，請求結束時歸還緩衝區
+    private final ReentrantLock requestBodyLock = new ReentrantLock();
+    private volatile JsonElement requestJson = null; // 第一次取用時解析的 JSON 請求內容
+    private final TempFileScope tempFileScope = TempFileServiceStatic.getInstance().createScope(); // 請求結束時刪除的暫存檔
 
     private CharSequence preview_already_output_content = null;
 
+    private RequestHandlerChain handlerChain = null; // 該請求的責任鏈狀態
+
     private AsyncActionContext(ServletContext servletContext, ServletConfig servletConfig, AsyncContext asyncContext) {
         this.servletContext = servletContext;
         this.servletConfig = servletConfig;
@@ -90,13 +112,26 @@ public class AsyncActionContext {
                         public void onComplete(AsyncEvent asyncEvent) {
                             asyncStatus = "onComplete";
                             isComplete = true;
+                            cancelRequestTimeout();
+                            releaseRequestBody();
+                            tempFileScope.deleteAll();
                         }
 
                         @Override
-                        public void onError(AsyncEvent asyncEvent) { asyncStatus = "onError"; }
+                        public void onError(AsyncEvent asyncEvent) {
+                            asyncStatus = "onError";
+                            cancelRequestTimeout();
+                            cancellationToken.cancel("error");
+                            releaseRequestBody();
+                            tempFileScope.deleteAll();
+                        }
 
                         @Override
-                        public void onTimeout(AsyncEvent asyncEvent) { asyncStatus = "onTimeout"; }
+                        public void onTimeout(AsyncEvent asyncEvent) {
+                            asyncStatus = "onTimeout";
+                            cancelRequestTimeout();
+                            cancellationToken.cancel("timeout");
+                        }
 
                     }
                 ).get();
@@ -149,6 +184,17 @@ public class AsyncActionContext {
         return Collections.list(this.asyncContext.getRequest().getParameterNames());
     }
 
+    public void setHandlerChain(RequestHandlerChain handlerChain) {
+        this.handlerChain = handlerChain;
+    }
+
+    /**
+     * 該請求專用的責任鏈，RequestHandler.passToNext() 藉此取得下一位 Handler
+     */
+    public RequestHandlerChain getHandlerChain() {
+        return this.handlerChain;
+    }
+
     public HttpSession getHttpSession() {
         return this.httpSession;
     }
@@ -232,15 +278,106 @@ public class AsyncActionContext {
      * 若沒有經過 output 就 complete 可能會造成 response Content-Length 出錯
      */
     public void complete() {
-        if(!isComplete) {
+        synchronized (this) {
+            if(!isComplete) {
+                this.isComplete = true;
+                this.asyncStatus = "onComplete";
+                cancelRequestTimeout();
+                this.asyncContext.complete();
+                return;
+            }
+        }
+        // 已因逾時或錯誤而被取消的請求，Handler 稍後呼叫 complete() 是預期中的情況
+        if(cancellationToken.isCancelled()) return;
+        try {
+            throw new Exception("async context has been set complete status");
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 該請求的取消狀態，逾時或發生錯誤時會被取消，
+     * 執行時間較長的工作應檢查 isCancelled() 或以 register() 註冊回收動作
+     */
+    public CancellationToken getCancellationToken() {
+        return this.cancellationToken;
+    }
+
+    /**
+     * 設定請求逾時時間（ms），由框架計時而不是 AsyncContext Timeout，所以於任何時間點皆可重新設定，
+     * 逾時時會取消 CancellationToken，尚未輸出時回應 503，並 complete 該請求；設置為 0 時表示無逾時限制
+     */
+    public void setRequestTimeout(long milliSecond) {
+        synchronized (this) {
+            if(isComplete) return;
+            if(milliSecond == this.requestTimeout && (milliSecond <= 0 || null != timeoutFuture)) return;
+            cancelRequestTimeout();
+            this.requestTimeout = milliSecond;
+            if(milliSecond > 0) {
+                this.timeoutFuture = ThreadPoolStatic.schedule(this::dispatchRequestTimeout, milliSecond);
+            }
+        }
+    }
+
+    public long getRequestTimeout() {
+        return this.requestTimeout;
+    }
+
+    private void releaseRequestBody() {
+        RequestBody body = this.requestBody;
+        if(null != body) body.release();
+    }
+
+    private void cancelRequestTimeout() {
+        ScheduledFuture<?> future = this.timeoutFuture;
+        if(null != future) {
+            future.cancel(false);
+            this.timeoutFuture = null;
+        }
+    }
+
+    // 排程執行緒同時負責所有請求的逾時計時，只在該執行緒上派發；
+    // 取消時的回收動作（例如 Statement.cancel()）可能需要與資料庫往返，交由 ThreadPool 執行，無法執行時才直接處理
+    private void dispatchRequestTimeout() {
+        if(isComplete) return;
+        if(!ThreadPoolStatic.tryExecute(this::onRequestTimeout)) {
+            onRequestTimeout();
+        }
+    }
+
+    // 請求逾時的處理
+    private void onRequestTimeout() {
+        if(isComplete) return;
+        this.asyncStatus = "onTimeout";
+        // 記錄逾時當下處理中的 Handler
+        {
+            String handlerName = null;
+            if(null != handlerChain) {
+                RequestHandler current = handlerChain.getCurrent();
+                if(null != current) handlerName = current.getClass().getName();
+            }
+            WebAppServicePoolStatic.getInstance().markTimeout(handlerName);
+            String msg_zht = "請求逾時（" + requestTimeout + "ms）：" + handlerName + " " + urlPath;
+            LoggerService.logWARN(msg_zht);
+        }
+        cancellationToken.cancel("timeout");
+        // 與 Handler 的輸出競爭同一個輸出權，已開始輸出的內容由取消回收，不再另外回應錯誤
+        if(isOutput.compareAndSet(false, true)) {
+            try {
+                ((HttpServletResponse) asyncContext.getResponse()).sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            } catch (Exception e) {
+                // e.printStackTrace();
+            }
+        }
+        synchronized (this) {
+            if(isComplete) return;
             this.isComplete = true;
-            this.asyncStatus = "onComplete";
-            this.asyncContext.complete();
-        } else {
+            this.timeoutFuture = null;
             try {
-                throw new Exception("async context has been set complete status");
+                this.asyncContext.complete();
             } catch (Exception e) {
-                e.printStackTrace();
+                // e.printStackTrace();
             }
         }
     }
@@ -362,7 +499,7 @@ public class AsyncActionContext {
         {
             if (null == mimeType || mimeType.isEmpty()) {
                 try {
-                    fileMIME = new Tika().detect(inputStream);
+                    fileMIME = MimeTypeServiceStatic.getInstance().detect(inputStream, fileName);
                 } catch (Exception e) {
                     e.printStackTrace();
                 }
@@ -397,7 +534,11 @@ public class AsyncActionContext {
             sbd.append("filename*=utf-8''"); // use for modern browser
             sbd.append(encodeFileName);
             response.setHeader("Content-Disposition", sbd.toString());
+            // InputStream 無法得知內容長度，不支援 Range 請求
+            response.setHeader("Accept-Ranges", "none");
         }
+        String contentEncoding = selectContentEncoding(response, -1);
+        if(null != contentEncoding) response.setHeader("Content-Encoding", contentEncoding);
         // 使用 WriteListener 非同步輸出
         {
             try {
@@ -405,7 +546,9 @@ public class AsyncActionContext {
                 AsyncWriteListener asyncWriteListener = new AsyncWriteListener.Builder()
                         .setServletOutputStream(servletOutputStream)
                         .setInputStream(inputStream)
+                        .setContentEncoding(contentEncoding)
                         .setHandler(handler)
+                        .setCancellationToken(cancellationToken)
                         .build();
                 setOutputWriteListener(servletOutputStream, asyncWriteListener);
             } catch (Exception e) {
@@ -422,12 +565,9 @@ public class AsyncActionContext {
      * #230412 解決 null 值的 key 不會被序列化的問題
      */
     public void printToResponse(JsonObject jsonObject, Handler handler) {
-        GsonBuilder gson_builder = new GsonBuilder();
-        gson_builder.disableHtmlEscaping();
-        gson_builder.serializeNulls();
-        // gson_builder.setDateFormat()
-        Gson gson = gson_builder.create();
-        printToResponse(gson.toJson(jsonObject), handler);
+        if(checkIsOutput(previewJson(jsonObject))) return;
+        Gson gson = GsonServiceStatic.getInstance().getResponse();
+        outputJsonToResponse(writer -> gson.toJson(jsonObject, writer), gson, "text/plain", ".txt", handler);
     }
 
     /**
@@ -449,7 +589,14 @@ public class AsyncActionContext {
                 sbd.append(encodeOutputFileName(tmpRespName)).append(".txt");
             }
             response.setHeader("Content-Disposition", sbd.toString());
-            response.setHeader("Content-Length", String.valueOf(content.getBytes(StandardCharsets.UTF_8).length));
+        }
+        // 只編碼一次，同時用於 Content-Length 及輸出內容
+        byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        String contentEncoding = selectContentEncoding(response, bytes.length);
+        if(null != contentEncoding) {
+            response.setHeader("Content-Encoding", contentEncoding);
+        } else {
+            response.setHeader("Content-Length", String.valueOf(bytes.length));
         }
         // 使用 WriteListener 非同步輸出
         {
@@ -457,8 +604,10 @@ public class AsyncActionContext {
                 ServletOutputStream servletOutputStream = response.getOutputStream();
                 AsyncWriteListener asyncWriteListener = new AsyncWriteListener.Builder()
                         .setServletOutputStream(servletOutputStream)
-                        .setCharSequence(content)
+                        .setInputStream(new ByteArrayInputStream(bytes))
+                        .setContentEncoding(contentEncoding)
                         .setHandler(handler)
+                        .setCancellationToken(cancellationToken)
                         .build();
                 setOutputWriteListener(servletOutputStream, asyncWriteListener);
             } catch (Exception e) {
@@ -487,7 +636,14 @@ public class AsyncActionContext {
                 sbd.append(encodeOutputFileName(tmpRespName));
             }
             response.setHeader("Content-Disposition", sbd.toString());
-            response.setHeader("Content-Length", String.valueOf(content.getBytes(StandardCharsets.UTF_8).length));
+        }
+        // 只編碼一次，同時用於 Content-Length 及輸出內容
+        byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        String contentEncoding = selectContentEncoding(response, bytes.length);
+        if(null != contentEncoding) {
+            response.setHeader("Content-Encoding", contentEncoding);
+        } else {
+            response.setHeader("Content-Length", String.valueOf(bytes.length));
         }
         // 使用 WriteListener 非同步輸出
         {
@@ -495,8 +651,10 @@ public class AsyncActionContext {
                 ServletOutputStream servletOutputStream = response.getOutputStream();
                 AsyncWriteListener asyncWriteListener = new AsyncWriteListener.Builder()
                         .setServletOutputStream(servletOutputStream)
-                        .setCharSequence(content)
+                        .setInputStream(new ByteArrayInputStream(bytes))
+                        .setContentEncoding(contentEncoding)
                         .setHandler(handler)
+                        .setCancellationToken(cancellationToken)
                         .build();
                 setOutputWriteListener(servletOutputStream, asyncWriteListener);
             } catch (Exception e) {
@@ -508,38 +666,115 @@ public class AsyncActionContext {
     /**
      * 輸出 JSON 格式的字串至 Response
      * 此方法會以 application/json 格式回傳至前端
+     * -
+     * 直接序列化至 ByteBufferPool 的緩衝區，由編碼後的大小取得 Content-Length，不產生中間的 String 及 byte[]
      */
     public void outputJSONToResponse(JsonObject obj, Handler handler) {
-        if(checkIsOutput(new Gson().toJson(obj))) return;
+        if(checkIsOutput(previewJson(obj))) return;
+        Gson gson = GsonServiceStatic.getInstance().getDefault();
+        outputJsonToResponse(writer -> gson.toJson(obj, writer), gson, "application/json", ".json", handler);
+    }
+
+    /**
+     * 以 JsonWriter 串流輸出 JSON 至 Response（application/json），
+     * 適合由 Handler 逐筆寫入大量資料，例如 writer.beginArray() ... writer.endArray()
+     */
+    public void outputJSONToResponse(JsonResponseWriter jsonResponseWriter, Handler handler) {
+        // 串流輸出的內容尚未產生，以 JsonResponseWriter 的類別（通常為呼叫端 Handler 的 lambda）作為描述
+        if(checkIsOutput("JsonResponseWriter: " + jsonResponseWriter.getClass().getName())) return;
+        outputJsonToResponse(jsonResponseWriter, GsonServiceStatic.getInstance().getDefault(), "application/json", ".json", handler);
+    }
+
+    // 擷取 JsonObject 序列化後的前一百字元作為 checkIsOutput() 的預覽，足夠時即中斷序列化，不產生完整的 String
+    private static String previewJson(JsonObject jsonObject) {
+        StringBuilder sbd = new StringBuilder();
+        try {
+            GsonServiceStatic.getInstance().getDefault().toJson(jsonObject, new Writer() {
+                @Override
+                public void write(char[] cbuf, int off, int len) throws IOException {
+                    sbd.append(cbuf, off, Math.min(len, 100 - sbd.length()));
+                    if(sbd.length() >= 100) throw new IOException("preview is complete");
+                }
+
+                @Override
+                public void flush() {}
+
+                @Override
+                public void close() {}
+            });
+        } catch (Exception e) {
+            // 已擷取足夠的內容
+        }
+        return sbd.toString();
+    }
+
+    // 將 JSON 寫入 PooledByteBufferOutputStream 後以 WriteListener 輸出，緩衝區於輸出結束時歸還
+    private void outputJsonToResponse(JsonResponseWriter jsonResponseWriter, Gson gson, String mime, String extension, Handler handler) {
         HttpServletResponse response = ((HttpServletResponse) asyncContext.getResponse());
-        final String outputString = new Gson().toJson(obj);
+        PooledByteBufferOutputStream outputStream = new PooledByteBufferOutputStream();
+        try {
+            JsonWriter jsonWriter = gson.newJsonWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+            jsonResponseWriter.write(jsonWriter);
+            jsonWriter.flush();
+        } catch (Exception e) {
+            e.printStackTrace();
+            outputStream.release();
+            if(null != handler) {
+                Bundle b = new Bundle();
+                b.putString("status", "fail");
+                b.putString("msg_zht", "JSON 內容寫入失敗");
+                Message m = handler.obtainMessage();
+                m.setData(b);
+                m.sendToTarget();
+            }
+            return;
+        }
         // 因為採用 byte 輸出，如果沒有 Response Header 容易在瀏覽器端發生錯誤
         {
-            response.setContentType("application/json;charset="+StandardCharsets.UTF_8.name());
+            response.setContentType(mime+";charset="+StandardCharsets.UTF_8.name());
             StringBuilder sbd = new StringBuilder();
             {
                 sbd.append("inline;filename=\"");
                 String tmpRespName = RandomServiceStatic.getInstance().getTimeHash(6);
-                sbd.append(encodeOutputFileName(tmpRespName)).append(".json");
+                sbd.append(encodeOutputFileName(tmpRespName)).append(extension);
                 sbd.append("\"");
                 sbd.append("filename*=utf-8''"); // use for modern browser
-                sbd.append(encodeOutputFileName(tmpRespName)).append(".json");
+                sbd.append(encodeOutputFileName(tmpRespName)).append(extension);
             }
             response.setHeader("Content-Disposition", sbd.toString());
-            response.setHeader("Content-Length", String.valueOf( outputString.getBytes(StandardCharsets.UTF_8).length ));
+        }
+        String contentEncoding = selectContentEncoding(response, outputStream.size());
+        if(null != contentEncoding) {
+            response.setHeader("Content-Encoding", contentEncoding);
+        } else {
+            response.setHeader("Content-Length", String.valueOf( outputStream.size() ));
         }
         // 使用 WriteListener 非同步輸出
         {
+            InputStream inputStream = null;
             try {
+                inputStream = outputStream.toInputStream();
                 ServletOutputStream servletOutputStream = response.getOutputStream();
                 AsyncWriteListener asyncWriteListener = new AsyncWriteListener.Builder()
                         .setServletOutputStream(servletOutputStream)
-                        .setCharSequence(outputString)
+                        .setInputStream(inputStream)
+                        .setContentEncoding(contentEncoding)
                         .setHandler(handler)
+                        .setCancellationToken(cancellationToken)
                         .build();
                 setOutputWriteListener(servletOutputStream, asyncWriteListener);
             } catch (Exception e) {
                 e.printStackTrace();
+                // toInputStream() 之後緩衝區改由 InputStream 管理，需 close() 才會歸還
+                if(null == inputStream) {
+                    outputStream.release();
+                } else {
+                    try {
+                        inputStream.close();
+                    } catch (Exception ex) {
+                        // ex.printStackTrace();
+                    }
+                }
             }
         }
     }
@@ -609,7 +844,7 @@ public class AsyncActionContext {
             if (null == mimeType || mimeType.isEmpty()) {
                 try {
                     // fileMIME = Files.probeContentType(Paths.get(file.getPath()));
-                    fileMIME = new Tika().detect(file);
+                    fileMIME = MimeTypeServiceStatic.getInstance().detect(file);
                 } catch (Exception e) {
                     e.printStackTrace();
                 }
@@ -628,10 +863,17 @@ public class AsyncActionContext {
         // https://developer.mozilla.org/en-US/docs/Web/HTTP/Headers/Content-Disposition
         // 解決 Content-Disposition 跨瀏覽器編碼的問題：
         // https://blog.robotshell.org/2012/deal-with-http-header-encoding-for-file-download/
+        final String contentType = fileMIME + ";charset=" + StandardCharsets.UTF_8.name();
+        final long fileLength = file.length();
+        final long lastModified = file.lastModified();
         HttpServletResponse response = ((HttpServletResponse) asyncContext.getResponse());
+        // 僅在輸出完整內容時壓縮，Range 請求仍以原始內容的位置輸出
+        response.setContentType( contentType );
+        final String contentEncoding = null == ((HttpServletRequest) asyncContext.getRequest()).getHeader("Range")
+                ? selectContentEncoding(response, fileLength)
+                : null;
+        final String eTag = withETagSuffix(createETag(fileLength, lastModified), contentEncoding);
         {
-            // ContentType
-            response.setContentType( fileMIME + ";charset=" + StandardCharsets.UTF_8.name() );
             // Content-Disposition
             StringBuilder sbd = new StringBuilder();
             if (isAttachment) {
@@ -644,8 +886,96 @@ public class AsyncActionContext {
             sbd.append("filename*=utf-8''"); // use for modern browser
             sbd.append(encodeFileName);
             response.setHeader("Content-Disposition", sbd.toString());
-            // Content-Length
-            response.setHeader("Content-Length", String.valueOf(file.length()));
+            // 檔案驗證資訊，提供瀏覽器以 If-None-Match / If-Modified-Since 重新驗證及續傳
+            response.setHeader("Accept-Ranges", "bytes");
+            response.setHeader("ETag", eTag);
+            response.setDateHeader("Last-Modified", lastModified);
+        }
+
+        // 瀏覽器快取仍有效時直接回應 304，不需再建立任何輸出
+        if(isNotModified(eTag, lastModified)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            Bundle b = new Bundle();
+            b.putString("status", "done");
+            Message m = handler.obtainMessage();
+            m.setData(b);
+            m.sendToTarget();
+            return;
+        }
+
+        // Range 請求：null 表示輸出完整內容，空集合表示沒有可滿足的區段
+        ArrayList<ByteRange> ranges = getRequestRanges(eTag, lastModified, fileLength);
+        if(null != ranges && ranges.isEmpty()) {
+            response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            response.setHeader("Content-Range", "bytes */" + fileLength);
+            response.setHeader("Content-Length", "0");
+            Bundle b = new Bundle();
+            b.putString("status", "done");
+            Message m = handler.obtainMessage();
+            m.setData(b);
+            m.sendToTarget();
+            return;
+        }
+
+        // 多個區段時以 multipart/byteranges 輸出
+        if(null != ranges && ranges.size() > 1) {
+            String boundary = RandomServiceStatic.getInstance().getTimeHash(16);
+            ArrayList<InputStream> parts = new ArrayList<>();
+            long contentLength = 0;
+            for(ByteRange range : ranges) {
+                byte[] partHeader = ("\r\n--" + boundary + "\r\n"
+                        + "Content-Type: " + contentType + "\r\n"
+                        + "Content-Range: " + range.toContentRange(fileLength) + "\r\n\r\n").getBytes(StandardCharsets.UTF_8);
+                parts.add(new ByteArrayInputStream(partHeader));
+                parts.add(new FileRangeInputStream(file, range.getStart(), range.getEnd()));
+                contentLength += partHeader.length + range.getLength();
+            }
+            byte[] partEnd = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8);
+            parts.add(new ByteArrayInputStream(partEnd));
+            contentLength += partEnd.length;
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            response.setContentType("multipart/byteranges; boundary=" + boundary);
+            response.setHeader("Content-Length", String.valueOf(contentLength));
+            try {
+                ServletOutputStream servletOutputStream = response.getOutputStream();
+                AsyncWriteListener asyncWriteListener = new AsyncWriteListener.Builder()
+                        .setServletOutputStream(servletOutputStream)
+                        .setInputStream(new SequenceInputStream(Collections.enumeration(parts)))
+                        .setHandler(handler)
+                        .setCancellationToken(cancellationToken)
+                        .build();
+                setOutputWriteListener(servletOutputStream, asyncWriteListener);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            return;
+        }
+
+        // 單一區段或完整內容
+        long start = 0;
+        long end = fileLength - 1;
+        if(null != ranges) {
+            ByteRange range = ranges.get(0);
+            start = range.getStart();
+            end = range.getEnd();
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            response.setHeader("Content-Range", range.toContentRange(fileLength));
+        }
+        // Content-Length
+        if(null != contentEncoding) {
+            response.setHeader("Content-Encoding", contentEncoding);
+        } else {
+            response.setHeader("Content-Length", String.valueOf(end - start + 1));
+        }
+
+        // 容器支援 sendfile 時由 kernel 直接輸出檔案內容，不需經過 JVM heap 複製
+        if(null == contentEncoding && trySendfile(file, start, end + 1)) {
+            Bundle b = new Bundle();
+            b.putString("status", "done");
+            Message m = handler.obtainMessage();
+            m.setData(b);
+            m.sendToTarget();
+            return;
         }
 
         // 使用 WriteListener 非同步輸出
@@ -655,7 +985,58 @@ public class AsyncActionContext {
                 AsyncWriteListener asyncWriteListener = new AsyncWriteListener.Builder()
                         .setServletOutputStream(servletOutputStream)
                         .setFile(file)
+                        .setFileRange(start, end)
+                        .setContentEncoding(contentEncoding)
+                        .setHandler(handler)
+                        .setCancellationToken(cancellationToken)
+                        .build();
+                setOutputWriteListener(servletOutputStream, asyncWriteListener);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * 輸出已快取於記憶體的靜態資源，依 Accept-Encoding 選擇預先壓縮的版本，
+     * 並以 ETag / Last-Modified 支援 304 重新驗證；此類資源不支援 Range 請求
+     */
+    public void outputResourceToResponse(StaticResource resource, Handler handler) {
+        if(checkIsOutput(resource.getPath())) return;
+        HttpServletRequest request = (HttpServletRequest) asyncContext.getRequest();
+        HttpServletResponse response = ((HttpServletResponse) asyncContext.getResponse());
+        String encoding = resource.selectEncoding(request.getHeader("Accept-Encoding"));
+        String eTag = resource.getETag(encoding);
+        {
+            response.setContentType( resource.getContentType() + ";charset=" + StandardCharsets.UTF_8.name() );
+            response.setHeader("Vary", "Accept-Encoding");
+            response.setHeader("ETag", eTag);
+            response.setDateHeader("Last-Modified", resource.getLastModified());
+        }
+        // 瀏覽器快取仍有效時直接回應 304
+        if(isNotModified(eTag, resource.getLastModified())) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            Bundle b = new Bundle();
+            b.putString("status", "done");
+            Message m = handler.obtainMessage();
+            m.setData(b);
+            m.sendToTarget();
+            return;
+        }
+        ByteBuffer content = resource.getContent(encoding);
+        {
+            if(!"identity".equals(encoding)) response.setHeader("Content-Encoding", encoding);
+            response.setHeader("Content-Length", String.valueOf(content.remaining()));
+        }
+        // 使用 WriteListener 非同步輸出
+        {
+            try {
+                ServletOutputStream servletOutputStream = response.getOutputStream();
+                AsyncWriteListener asyncWriteListener = new AsyncWriteListener.Builder()
+                        .setServletOutputStream(servletOutputStream)
+                        .setInputStream(new ByteBufferBackedInputStream(content))
                         .setHandler(handler)
+                        .setCancellationToken(cancellationToken)
                         .build();
                 setOutputWriteListener(servletOutputStream, asyncWriteListener);
             } catch (Exception e) {
@@ -664,6 +1045,117 @@ public class AsyncActionContext {
         }
     }
 
+    /**
+     * 以檔案大小及修改時間產生 ETag，
+     * 修改時間距今不到一秒的檔案仍可能於同一秒內再次被修改，此時採用 weak ETag
+     */
+    private String createETag(long length, long lastModified) {
+        String tag = "\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + "\"";
+        if(System.currentTimeMillis() - lastModified < 1000) return "W/" + tag;
+        return tag;
+    }
+
+    /**
+     * If-None-Match（weak comparison）優先於 If-Modified-Since，僅適用於 GET 與 HEAD
+     */
+    private boolean isNotModified(String eTag, long lastModified) {
+        if(!"GET".equalsIgnoreCase(reqMethod) && !"HEAD".equalsIgnoreCase(reqMethod)) return false;
+        HttpServletRequest request = (HttpServletRequest) asyncContext.getRequest();
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if(null != ifNoneMatch) return matchETag(ifNoneMatch, eTag, false);
+        try {
+            long ifModifiedSince = request.getDateHeader("If-Modified-Since");
+            if(ifModifiedSince < 0) return false;
+            // HTTP date 僅精確至秒
+            return lastModified / 1000 <= ifModifiedSince / 1000;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 取得可滿足的 Range 區段，不具有 Range、格式錯誤或 If-Range 已不符合時回傳 null（輸出完整內容）
+     */
+    private ArrayList<ByteRange> getRequestRanges(String eTag, long lastModified, long fileLength) {
+        if(!"GET".equalsIgnoreCase(reqMethod)) return null;
+        HttpServletRequest request = (HttpServletRequest) asyncContext.getRequest();
+        String range = request.getHeader("Range");
+        if(null == range) return null;
+        String ifRange = request.getHeader("If-Range");
+        if(null != ifRange) {
+            ifRange = ifRange.trim();
+            if(ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+                // If-Range 必須採用 strong comparison
+                if(!matchETag(ifRange, eTag, true)) return null;
+            } else {
+                try {
+                    long ifRangeDate = request.getDateHeader("If-Range");
+                    if(ifRangeDate < 0 || lastModified / 1000 != ifRangeDate / 1000) return null;
+                } catch (IllegalArgumentException e) {
+                    return null;
+                }
+            }
+        }
+        return ByteRange.parse(range, fileLength);
+    }
+
+    // https://developer.mozilla.org/en-US/docs/Web/HTTP/Headers/ETag#comparison
+    private boolean matchETag(String headerValue, String eTag, boolean isStrong) {
+        if(isStrong && eTag.startsWith("W/")) return false;
+        String target = eTag.startsWith("W/") ? eTag.substring(2) : eTag;
+        for(String tag : headerValue.split(",")) {
+            String _tag = tag.trim();
+            if("*".equals(_tag)) return true;
+            if(_tag.startsWith("W/")) {
+                if(isStrong) continue;
+                _tag = _tag.substring(2);
+            }
+            if(_tag.equals(target)) return true;
+        }
+        return false;
+    }
+
+    // 依 Accept-Encoding 及 CompressionService 設定選擇壓縮方式（gzip / deflate），不壓縮時回傳 null；
+    // 可壓縮的類型一律加上 Vary，避免快取代理將壓縮與未壓縮的內容混用
+    private String selectContentEncoding(HttpServletResponse response, long contentLength) {
+        CompressionService compression = CompressionServiceStatic.getInstance();
+        String contentType = response.getContentType();
+        if(!compression.isEnabled() || !compression.isCompressible(contentType)) return null;
+        response.addHeader("Vary", "Accept-Encoding");
+        if(response.containsHeader("Content-Encoding")) return null;
+        String acceptEncoding = ((HttpServletRequest) asyncContext.getRequest()).getHeader("Accept-Encoding");
+        return compression.selectEncoding(acceptEncoding, contentType, contentLength);
+    }
+
+    // 壓縮後的內容使用不同的 ETag："abc" -> "abc-gz"，W/"abc" -> W/"abc-gz"
+    private static String withETagSuffix(String eTag, String contentEncoding) {
+        if(null == contentEncoding) return eTag;
+        String suffix = "gzip".equals(contentEncoding) ? "-gz" : "-df";
+        return eTag.substring(0, eTag.length() - 1) + suffix + "\"";
+    }
+
+    /**
+     * Tomcat sendfile（org.apache.tomcat.sendfile.*）
+     * https://tomcat.apache.org/tomcat-10.1-doc/aio.html#Asynchronous_writes
+     * -
+     * 設定後由容器於 complete() 之後以 sendfile 輸出檔案的 [start, end) 區段，
+     * 檔案過小或容器不支援（例如啟用 compression 的連線）時回傳 false，改由 WriteListener 輸出
+     */
+    private boolean trySendfile(File file, long start, long end) {
+        if(end - start < SENDFILE_MIN_SIZE) return false;
+        try {
+            HttpServletRequest request = (HttpServletRequest) asyncContext.getRequest();
+            if(!Boolean.TRUE.equals(request.getAttribute("org.apache.tomcat.sendfile.support"))) return false;
+            request.setAttribute("org.apache.tomcat.sendfile.filename", file.getCanonicalPath());
+            request.setAttribute("org.apache.tomcat.sendfile.start", start);
+            request.setAttribute("org.apache.tomcat.sendfile.end", end);
+            return true;
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return false;
+    }
+
     /**
      * 取消該次請求 Http Response Cache 狀態
      */
@@ -678,6 +1170,28 @@ public class AsyncActionContext {
         }
     }
 
+    /**
+     * 伺服器忙碌時回應 503 Service Unavailable，並以 Retry-After 告知前端多久後再重試
+     */
+    public void responseServiceUnavailable(int retryAfterSecond, Handler handler) {
+        try {
+            HttpServletResponse response = (HttpServletResponse) asyncContext.getResponse();
+            response.setHeader("Retry-After", String.valueOf(retryAfterSecond));
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        if(null != handler) {
+            Bundle b = new Bundle();
+            b.putString("status", "fail");
+            b.putString("error_code", "503");
+            b.putString("msg_zht", "伺服器忙碌中，請稍後再試");
+            Message m = handler.obtainMessage();
+            m.setData(b);
+            m.sendToTarget();
+        }
+    }
+
     /**
      * Default Invalid Request Handler
      */
@@ -691,7 +1205,7 @@ public class AsyncActionContext {
                     obj.addProperty("error_code", "404");
                     obj.addProperty("status", "invalid_request");
                     obj.addProperty("msg_zht", "無效的請求");
-                    AsyncActionContext.this.printToResponse(new Gson().toJson(obj), new Handler(){
+                    AsyncActionContext.this.printToResponse(GsonServiceStatic.getInstance().getDefault().toJson(obj), new Handler(){
                         @Override
                         public void handleMessage(Message m) {
                             super.handleMessage(m);
@@ -725,7 +1239,7 @@ public class AsyncActionContext {
                     obj.addProperty("error_code", "500"); // server_side
                     obj.addProperty("msg", m.getData().getString("msg"));
                     obj.addProperty("msg_zht", m.getData().getString("msg_zht"));
-                    AsyncActionContext.this.printToResponse(new Gson().toJson(obj), new Handler(){
+                    AsyncActionContext.this.printToResponse(GsonServiceStatic.getInstance().getDefault().toJson(obj), new Handler(){
                         @Override
                         public void handleMessage(Message m) {
                             super.handleMessage(m);
@@ -761,6 +1275,39 @@ public class AsyncActionContext {
         return this.resourceExten;
     }
 
+    /**
+     * 讀取完整的請求內容（僅讀取一次，可重複取用），
+     * 不超過 TempFileService.setMemoryThreshold() 的內容保留於記憶體中，超過時寫入暫存檔
+     */
+    public RequestBody getRequestBody() throws IOException {
+        // 以 ReentrantLock 而非 synchronized 保護阻塞讀取，virtual 模式下不會占用 carrier thread
+        requestBodyLock.lock();
+        try {
+            if(null == requestBody) {
+                requestBody = RequestBody.read(
+                        asyncContext.getRequest().getInputStream(),
+                        TempFileServiceStatic.getInstance().getMemoryThreshold(),
+                        tempFileScope
+                );
+            }
+            return requestBody;
+        } finally {
+            requestBodyLock.unlock();
+        }
+    }
+
+    /**
+     * 設定已由 AsyncBodyReadListener 非同步讀取完成的請求內容
+     */
+    public void setRequestBody(RequestBody requestBody) {
+        requestBodyLock.lock();
+        try {
+            this.requestBody = requestBody;
+        } finally {
+            requestBodyLock.unlock();
+        }
+    }
+
     /**
      * 若是 Request 為 text/plain, application/json 等上傳格式，
      * 可由此方法將 InputStream 內容轉換為 String 的型態
@@ -768,107 +1315,83 @@ public class AsyncActionContext {
      * #200806 修正因 stream 模式造成重複取值會為空值的問題
      */
     public String getRequestTextContent() {
-        boolean is_disk_mode = false; // 是否先將資料寫入硬碟
         String res = null;
-        if(is_disk_mode) {
-            // 如果已建立過暫存檔案
-            if(null != temp_file_req_text) {
-                try {
-                    BufferedInputStream bis = new BufferedInputStream(new FileInputStream(temp_file_req_text));
-                    res = new String(bis.readAllBytes(), StandardCharsets.UTF_8);
+        try {
+            res = getRequestBody().getText(StandardCharsets.UTF_8);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return res;
+    }
+
+    /**
+     * 以串流的方式讀取 JSON 請求內容，直接由 RequestBody 的緩衝區或暫存檔解析，不會產生完整的 String，
+     * 適合大型 JSON 匯入逐筆處理；每次呼叫回傳新的 JsonReader，使用完畢應 close()
+     */
+    public JsonReader getRequestJsonReader() throws IOException {
+        return new JsonReader(new InputStreamReader(getRequestBody().getInputStream(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * JSON 請求內容解析後的 JsonElement，第一次呼叫時以串流解析並保留，之後重複取用，
+     * 內容不是有效的 JSON 時回傳 null
+     */
+    public JsonElement getRequestJson() {
+        JsonElement json = this.requestJson;
+        if(null != json) return json;
+        requestBodyLock.lock();
+        try {
+            if(null == this.requestJson) {
+                try (JsonReader reader = getRequestJsonReader()) {
+                    this.requestJson = JsonParser.parseReader(reader);
                 } catch (Exception e) {
                     e.printStackTrace();
                 }
-                return res;
-            }
-            // 第一次建立暫存檔案
-            Path temp_file_dir = null;
-            String dir_slash = System.getProperty("file.separator");
-            {
-                File app_dir = new FileFinder.Builder().build().find("WEB-INF").getParentFile();
-                String app_name = app_dir.getName();
-                File app_temp_dir = new FileFinder.Builder().build().find("WebAppFiles");
-                if(null == app_temp_dir) {
-                    LoggerService.logERROR("尚未建立 WebAppFiles 資料夾");
-                    System.err.println("尚未建立 WebAppFiles 資料夾");
-                } else {
-                    temp_file_dir = Paths.get(app_temp_dir + dir_slash + app_name + dir_slash + "temp");
-                    if (!temp_file_dir.toFile().exists()) {
-                        temp_file_dir.toFile().mkdirs();
-                    }
-                }
-                boolean file_create_status = false;
-                String file_name = "temp_txt_"+RandomServiceStatic.getInstance().getTimeHash(8);
-                temp_file_req_text = Paths.get(temp_file_dir + dir_slash + file_name).toFile();
-                try {
-                    file_create_status = temp_file_req_text.createNewFile();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-                if(file_create_status) temp_file_req_text.deleteOnExit(); // temp file
-            }
-            TextFileWriter textFileWriter = new TextFileWriter.Builder()
-                    .setTargetFile(temp_file_req_text)
-                    .setIsAppend(true)
-                    .build();
-            try {
-                BufferedInputStream bis = new BufferedInputStream(asyncContext.getRequest().getInputStream());
-                res = new String(bis.readAllBytes(), StandardCharsets.UTF_8);
-                textFileWriter.write(res);
-                textFileWriter.close();
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-        } else {
-            try {
-                BufferedInputStream bis = new BufferedInputStream(asyncContext.getRequest().getInputStream());
-                res = new String(bis.readAllBytes(), StandardCharsets.UTF_8);
-            } catch (Exception e) {
-                e.printStackTrace();
             }
+            return this.requestJson;
+        } finally {
+            requestBodyLock.unlock();
         }
-        return res;
+    }
+
+    /**
+     * JSON 請求內容為 JSON Object 時回傳該物件，否則回傳 null
+     */
+    public JsonObject getRequestJsonObject() {
+        JsonElement json = getRequestJson();
+        if(null == json || !json.isJsonObject()) return null;
+        return json.getAsJsonObject();
     }
 
     /**
      * 若是 Request 為純檔案傳輸（image/jpeg, image/png...），
      * 可由此方法將 InputStream 內容轉換為 File 的型態，
-     * 這個檔案會被暫存至 Tomcat or Jetty 被關閉為止（deleteOnExit）
+     * 這個檔案會在請求結束時刪除，需要保留時應搬移檔案或以 keepTempFile() 移出管理
      * -
      * #200806 修正因 stream 模式造成重複取值會為空值的問題
      */
     public File getRequestByteContent() {
-        if(null != temp_file_req_byte) return temp_file_req_byte;
-        Path temp_file_dir = null;
-        String dir_slash = System.getProperty("file.separator");
-        {
-            File app_dir = new FileFinder.Builder().build().find("WEB-INF").getParentFile();
-            String app_name = app_dir.getName();
-            File app_temp_dir = new FileFinder.Builder().build().find("WebAppFiles");
-            if(null == app_temp_dir) {
-                LoggerService.logERROR("尚未建立 WebAppFiles 資料夾");
-                System.err.println("尚未建立 WebAppFiles 資料夾");
-            } else {
-                temp_file_dir = Paths.get(app_temp_dir + dir_slash + app_name + dir_slash + "temp");
-                if (!temp_file_dir.toFile().exists()) {
-                    temp_file_dir.toFile().mkdirs();
-                }
-            }
-        }
+        File res = null;
         try {
-            String file_name = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss_SSS")) + "_" + RandomServiceStatic.getInstance().getLowerCaseRandomString(4);
-            File multi_part_file = Paths.get(temp_file_dir + dir_slash + file_name).toFile();
-            multi_part_file.deleteOnExit(); // temp file delete setting
-            Files.copy(
-                    asyncContext.getRequest().getInputStream(),
-                    multi_part_file.toPath(),
-                    StandardCopyOption.REPLACE_EXISTING
-            );
-            temp_file_req_byte = multi_part_file;
+            res = getRequestBody().toFile();
         } catch (Exception e) {
             e.printStackTrace();
         }
-        return temp_file_req_byte;
+        return res;
+    }
+
+    /**
+     * 該請求的暫存檔，請求結束（complete 或 error）時一併刪除
+     */
+    public TempFileScope getTempFileScope() {
+        return this.tempFileScope;
+    }
+
+    /**
+     * 保留暫存檔（例如上傳檔案不搬移而直接使用），請求結束時不會被刪除，之後須自行管理
+     */
+    public void keepTempFile(File file) {
+        this.tempFileScope.keep(file);
     }
 
     /**
@@ -912,33 +1435,36 @@ public class AsyncActionContext {
      * -- 1. 通常會看到此錯誤要注意是否 switch 條件未正確 break 而造成多個條件觸發
      * -- 2. 請檢查 if 等判斷式條件是否有重複執行的行為造成重複執行
      * -
+     * check_str 為此次輸出內容的預覽（僅保留一百字元），內容尚未產生時（例如串流輸出）則為呼叫端對輸出內容的描述，
+     * 重複輸出時會列印第一次輸出的 check_str 以供除錯
+     * -
      * #230427 增加判斷上一筆成功輸出的記錄，檔案以檔名提醒、純文本則列印原內容等
      * #230509 修正錯誤表達語意
      */
     private boolean checkIsOutput(String check_str) {
-        if(null == this.preview_already_output_content) {
+        if(isOutput.compareAndSet(false, true)) {
             if(check_str.length() > 100) check_str = check_str.substring(0, 100); // 僅擷取一百字元內容
             StackTraceElement[] stackTraceElements = Thread.currentThread().getStackTrace();
             JsonObject obj = new JsonObject();
             obj.addProperty("stack_trace", Arrays.toString(Arrays.stream(stackTraceElements).toArray()));
             obj.addProperty("check_str", check_str);
-            this.preview_already_output_content = new Gson().toJson(obj);
-        } else {
-            String msg_zht = "非同步套件將限制單個請求只能輸出一次，上一筆已輸出內容為（有可能為部分內容）：" + this.preview_already_output_content;
-            LoggerService.logERROR(msg_zht);
-            System.err.println(msg_zht);
+            this.preview_already_output_content = GsonServiceStatic.getInstance().getDefault().toJson(obj);
+            return false;
         }
-        if(isOutput) {
-            try {
-                throw new Exception("In a request only have one output command for WriteListener.");
-            } catch (Exception e) {
-                e.printStackTrace();
-                if( !this.isComplete ) {
-                    this.asyncContext.complete();
-                }
+        // 已因逾時或錯誤而被取消的請求已由取消流程回應，Handler 稍後輸出是預期中的情況
+        if(cancellationToken.isCancelled()) return true;
+        String msg_zht = "非同步套件將限制單個請求只能輸出一次，上一筆已輸出內容為（有可能為部分內容）：" + this.preview_already_output_content;
+        LoggerService.logERROR(msg_zht);
+        System.err.println(msg_zht);
+        try {
+            throw new Exception("In a request only have one output command for WriteListener.");
+        } catch (Exception e) {
+            e.printStackTrace();
+            if( !this.isComplete ) {
+                this.asyncContext.complete();
             }
         }
-        return isOutput;
+        return true;
     }
 
     /**
@@ -1029,8 +1555,11 @@ public class AsyncActionContext {
      * use WriteListener output
      */
     private void setOutputWriteListener(ServletOutputStream servletOutputStream, WriteListener writeListener) {
-        isOutput = true;
-        servletOutputStream.setWriteListener(writeListener);
+        // 輸出權已於 checkIsOutput() 取得；準備期間請求已被取消時，WriteListener 已由 CancellationToken 關閉其來源
+        synchronized (this) {
+            if(isComplete) return;
+            servletOutputStream.setWriteListener(writeListener);
+        }
     }
 
     public static class Builder {
@@ -0,0 +1,90 @@
+package framework.web.context;
+
+import java.util.ArrayList;
+
+/**
+ * HTTP Range 請求的位元組區段，start 與 end 皆為包含（inclusive）的位置
+ * https://developer.mozilla.org/en-US/docs/Web/HTTP/Range_requests
+ * -
+ * bytes=0-499 -> 前 500 bytes
+ * bytes=500- -> 第 500 byte 之後的所有內容
+ * bytes=-500 -> 最後 500 bytes
+ * bytes=0-0,-1 -> 多個區段，以 multipart/byteranges 回應
+ */
+public class ByteRange {
+
+    // 避免以大量細碎區段造成過多的 multipart 輸出
+    private static final int MAX_RANGE_COUNT = 16;
+
+    private final long start;
+    private final long end;
+
+    public ByteRange(long start, long end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    public long getStart() {
+        return this.start;
+    }
+
+    public long getEnd() {
+        return this.end;
+    }
+
+    public long getLength() {
+        return this.end - this.start + 1;
+    }
+
+    /**
+     * Content-Range 標頭內容，例如 bytes 0-499/1234
+     */
+    public String toContentRange(long entityLength) {
+        return "bytes " + start + "-" + end + "/" + entityLength;
+    }
+
+    /**
+     * 解析 Range 標頭：
+     * 格式錯誤或不支援的單位時回傳 null（應忽略 Range 並回應完整內容）；
+     * 格式正確但沒有任何可滿足的區段時回傳空的 ArrayList（應回應 416）
+     */
+    public static ArrayList<ByteRange> parse(String rangeHeader, long entityLength) {
+        if(null == rangeHeader) return null;
+        String header = rangeHeader.trim();
+        if(!header.startsWith("bytes=")) return null;
+        String[] specs = header.substring("bytes=".length()).split(",");
+        if(specs.length > MAX_RANGE_COUNT) return null;
+        ArrayList<ByteRange> ranges = new ArrayList<>();
+        for(String spec : specs) {
+            String _spec = spec.trim();
+            int dash = _spec.indexOf('-');
+            if(dash < 0) return null;
+            String first = _spec.substring(0, dash).trim();
+            String last = _spec.substring(dash + 1).trim();
+            long start;
+            long end;
+            try {
+                if(first.isEmpty()) {
+                    // suffix range
+                    if(last.isEmpty()) return null;
+                    long suffix = Long.parseLong(last);
+                    if(suffix < 0) return null;
+                    if(suffix == 0 || entityLength == 0) continue;
+                    start = Math.max(0, entityLength - suffix);
+                    end = entityLength - 1;
+                } else {
+                    start = Long.parseLong(first);
+                    end = last.isEmpty() ? Long.MAX_VALUE : Long.parseLong(last);
+                    if(start < 0 || end < start) return null;
+                    if(start >= entityLength) continue; // 無法滿足的區段
+                    end = Math.min(end, entityLength - 1);
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            ranges.add(new ByteRange(start, end));
+        }
+        return ranges;
+    }
+
+}
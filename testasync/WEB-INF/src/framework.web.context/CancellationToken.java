@@ -0,0 +1,66 @@
+package framework.web.context;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 每個請求獨立的取消狀態，由 AsyncActionContext 持有，
+ * 當請求逾時或發生錯誤時會被標記為取消，並依序執行已註冊的回收動作，
+ * 例如 DatabaseAction 的 Statement.cancel() 或 AsyncWriteListener 關閉輸出來源等；
+ * 執行時間較長的 Handler 也應於適當的時機檢查 isCancelled() 並提早結束
+ */
+public class CancellationToken {
+
+    private volatile boolean isCancelled = false;
+    private volatile String reason = null;
+    private final CopyOnWriteArrayList<Runnable> callbacks = new CopyOnWriteArrayList<>();
+
+    public boolean isCancelled() {
+        return this.isCancelled;
+    }
+
+    /**
+     * 取消的原因，例如 timeout, error
+     */
+    public String getReason() {
+        return this.reason;
+    }
+
+    /**
+     * 標記為取消並執行所有已註冊的回收動作，重複呼叫時不會再次執行
+     */
+    public void cancel(String reason) {
+        synchronized (this) {
+            if(this.isCancelled) return;
+            this.reason = reason;
+            this.isCancelled = true;
+        }
+        for(Runnable callback : callbacks) {
+            try {
+                callback.run();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+        callbacks.clear();
+    }
+
+    /**
+     * 註冊取消時的回收動作，若已被取消則立即執行
+     */
+    public void register(Runnable callback) {
+        if(null == callback) return;
+        callbacks.add(callback);
+        if(this.isCancelled && callbacks.remove(callback)) {
+            callback.run();
+        }
+    }
+
+    /**
+     * 工作正常結束時移除已註冊的回收動作
+     */
+    public void unregister(Runnable callback) {
+        if(null == callback) return;
+        callbacks.remove(callback);
+    }
+
+}
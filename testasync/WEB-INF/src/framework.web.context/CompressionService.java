@@ -0,0 +1,114 @@
+package framework.web.context;
+
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.Deflater;
+
+/**
+ * 回應內容壓縮（Content-Encoding: gzip / deflate）的設定，
+ * 由 AsyncActionContext 的輸出方法依 Accept-Encoding 協商，並由 AsyncWriteListener 邊讀取邊壓縮輸出
+ * -
+ * minSize -> 小於此大小（bytes）的內容不壓縮，壓縮後的差異不足以抵銷 CPU 成本
+ * level -> Deflater 壓縮等級（1 ~ 9），預設為 6，較高的等級對 JSON、文字的壓縮率提升有限但 CPU 成本明顯增加
+ * mimeTypes -> 可壓縮的 MIME 關鍵字，圖片、影音、zip 等已壓縮的格式不應加入
+ */
+public class CompressionService {
+
+    private volatile boolean isEnabled = true;
+    private volatile long minSize = 1024;
+    private volatile int level = 6;
+    private final CopyOnWriteArrayList<String> mimeTypes = new CopyOnWriteArrayList<>(new String[] {
+            "text/", "javascript", "json", "xml", "svg"
+    });
+
+    public void setEnabled(boolean isEnabled) {
+        this.isEnabled = isEnabled;
+    }
+
+    public boolean isEnabled() {
+        return this.isEnabled;
+    }
+
+    public void setMinSize(long minSize) {
+        if(minSize < 0) {
+            System.err.println("minSize 必須是一個不小於 0 的整數");
+            return;
+        }
+        this.minSize = minSize;
+    }
+
+    public void setLevel(int level) {
+        if(level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION) {
+            System.err.println("level 必須介於 " + Deflater.BEST_SPEED + " ~ " + Deflater.BEST_COMPRESSION + " 之間");
+            return;
+        }
+        this.level = level;
+    }
+
+    public int getLevel() {
+        return this.level;
+    }
+
+    /**
+     * 設定可壓縮的 MIME 關鍵字（例如 text/, json），取代預設值
+     */
+    public void setMimeTypes(ArrayList<String> mimeTypes) {
+        if(null == mimeTypes) {
+            System.err.println("mimeTypes 不可為 null");
+            return;
+        }
+        this.mimeTypes.clear();
+        for(String mimeType : mimeTypes) this.mimeTypes.add(mimeType.toLowerCase(Locale.ENGLISH));
+    }
+
+    /**
+     * 該 MIME 是否屬於可壓縮的格式
+     */
+    public boolean isCompressible(String contentType) {
+        if(null == contentType) return false;
+        String type = contentType.toLowerCase(Locale.ENGLISH);
+        for(String mimeType : mimeTypes) {
+            if(type.contains(mimeType)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * 選擇回應內容的壓縮方式，回傳 gzip、deflate 或 null（不壓縮）
+     * contentLength 為 -1 時表示無法得知內容長度
+     */
+    public String selectEncoding(String acceptEncoding, String contentType, long contentLength) {
+        if(!isEnabled || null == acceptEncoding) return null;
+        if(contentLength >= 0 && contentLength < minSize) return null;
+        if(!isCompressible(contentType)) return null;
+        String _accept = acceptEncoding.toLowerCase(Locale.ENGLISH);
+        if(acceptsEncoding(_accept, "gzip")) return "gzip";
+        if(acceptsEncoding(_accept, "deflate")) return "deflate";
+        return null;
+    }
+
+    /**
+     * Accept-Encoding（小寫）是否接受該編碼，q=0 表示明確拒絕
+     */
+    public static boolean acceptsEncoding(String acceptEncoding, String encoding) {
+        for(String item : acceptEncoding.split(",")) {
+            String[] params = item.trim().split(";");
+            String name = params[0].trim();
+            if(!name.equals(encoding) && !name.equals("*")) continue;
+            for(int i = 1; i < params.length; i++) {
+                String param = params[i].trim();
+                if(param.startsWith("q=")) {
+                    try {
+                        if(Double.parseDouble(param.substring(2)) <= 0) return false;
+                    } catch (NumberFormatException e) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,19 @@
+package framework.web.context;
+
+public class CompressionServiceStatic {
+
+    private static final CompressionService instance;
+
+    private CompressionServiceStatic() {}
+
+    static {
+        instance = new CompressionServiceStatic.Instance();
+    }
+
+    public static CompressionService getInstance() {
+        return instance;
+    }
+
+    private static class Instance extends CompressionService {}
+
+}
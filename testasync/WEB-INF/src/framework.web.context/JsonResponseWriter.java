@@ -0,0 +1,15 @@
+package framework.web.context;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+
+/**
+ * 由 Handler 提供的 JSON 串流輸出內容，直接以 JsonWriter 逐筆寫入（例如查詢結果逐列輸出），
+ * 不需要先組成完整的 JsonObject 或 String
+ */
+public interface JsonResponseWriter {
+
+    void write(JsonWriter writer) throws IOException;
+
+}
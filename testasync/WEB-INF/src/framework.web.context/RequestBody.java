@@ -0,0 +1,225 @@
+package framework.web.context;
+
+import framework.bytebuf.ByteBufferPoolStatic;
+import framework.file.TempFileScope;
+import framework.file.TempFileServiceStatic;
+import framework.random.RandomServiceStatic;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Vector;
+
+/**
+ * 已讀取完畢、可重複讀取的請求內容
+ * -
+ * 不超過 memoryThreshold 的內容保留於 ByteBufferPool 取得的緩衝區中，
+ * 超過時才寫入暫存檔（登記於該請求的 TempFileScope，請求結束時刪除），
+ * 讓一般 JSON API 不需要經過檔案讀寫
+ * -
+ * 請求結束時由 AsyncActionContext 呼叫 release() 歸還緩衝區，之後不可再讀取；
+ * getInputStream() 取得的 InputStream 直接讀取緩衝區，尚未 close() 時延後至最後一個 InputStream close() 才歸還，
+ * 請求逾時等情況下 Handler 仍在讀取時，緩衝區不會被其他請求覆寫
+ */
+public class RequestBody {
+
+    private final long memoryThreshold;
+    private final TempFileScope tempFileScope;
+    private final ArrayList<ByteBuffer> chunks = new ArrayList<>(); // 記憶體模式的內容，position 為已寫入的大小
+    private File file = null; // 暫存檔模式的內容
+    private OutputStream fileOutput = null; // 寫入中的暫存檔
+    private long size = 0;
+    private boolean isReleased = false;
+    private int openStreams = 0; // 尚未 close() 的記憶體模式 InputStream 數量
+    private final ArrayList<ByteBuffer> retiredChunks = new ArrayList<>(); // 等待 InputStream 全部 close() 後歸還的緩衝區
+
+    private RequestBody(long memoryThreshold, TempFileScope tempFileScope) {
+        this.memoryThreshold = memoryThreshold;
+        this.tempFileScope = tempFileScope;
+    }
+
+    /**
+     * 建立空白的請求內容，由 write() 逐段寫入（例如 ReadListener 非同步讀取時），完成後呼叫 finish()
+     */
+    public static RequestBody create(long memoryThreshold, TempFileScope tempFileScope) {
+        return new RequestBody(memoryThreshold, tempFileScope);
+    }
+
+    /**
+     * 以阻塞的方式讀取完整的 InputStream 內容，超過 memoryThreshold（bytes）時寫入暫存檔
+     */
+    public static RequestBody read(InputStream inputStream, long memoryThreshold, TempFileScope tempFileScope) throws IOException {
+        RequestBody body = new RequestBody(memoryThreshold, tempFileScope);
+        ByteBuffer buffer = ByteBufferPoolStatic.getInstance().acquire();
+        try {
+            int len;
+            while ((len = inputStream.read(buffer.array())) != -1) {
+                body.write(buffer.array(), 0, len);
+            }
+            body.finish();
+        } catch (IOException e) {
+            body.release();
+            throw e;
+        } finally {
+            ByteBufferPoolStatic.getInstance().release(buffer);
+        }
+        return body;
+    }
+
+    /**
+     * 附加內容，累計超過 memoryThreshold 時將已寫入的內容移至暫存檔
+     */
+    public synchronized void write(byte[] bytes, int offset, int len) throws IOException {
+        checkReleased();
+        size += len;
+        if(null == fileOutput && size > memoryThreshold) {
+            fileOutput = spill();
+        }
+        if(null != fileOutput) {
+            fileOutput.write(bytes, offset, len);
+            return;
+        }
+        while (len > 0) {
+            ByteBuffer chunk = chunks.isEmpty() ? null : chunks.get(chunks.size() - 1);
+            if(null == chunk || !chunk.hasRemaining()) {
+                chunk = ByteBufferPoolStatic.getInstance().acquire();
+                chunks.add(chunk);
+            }
+            int count = Math.min(len, chunk.remaining());
+            chunk.put(bytes, offset, count);
+            offset += count;
+            len -= count;
+        }
+    }
+
+    /**
+     * 寫入完成，關閉寫入中的暫存檔
+     */
+    public synchronized void finish() throws IOException {
+        if(null != fileOutput) {
+            fileOutput.close();
+            fileOutput = null;
+        }
+    }
+
+    public synchronized long getSize() {
+        return this.size;
+    }
+
+    /**
+     * 內容是否保留於記憶體中
+     */
+    public synchronized boolean isInMemory() {
+        return null == this.file;
+    }
+
+    public synchronized InputStream getInputStream() throws IOException {
+        checkReleased();
+        if(null != file) return new BufferedInputStream(new FileInputStream(file));
+        Vector<InputStream> streams = new Vector<>();
+        for(ByteBuffer chunk : chunks) {
+            streams.add(new ByteArrayInputStream(chunk.array(), 0, chunk.position()));
+        }
+        openStreams++;
+        return new SequenceInputStream(streams.elements()) {
+            private boolean isClosed = false;
+
+            @Override
+            public void close() throws IOException {
+                super.close();
+                if(isClosed) return;
+                isClosed = true;
+                closeStream();
+            }
+        };
+    }
+
+    public synchronized byte[] getBytes() throws IOException {
+        checkReleased();
+        if(null != file) return Files.readAllBytes(file.toPath());
+        byte[] bytes = new byte[(int) size];
+        int offset = 0;
+        for(ByteBuffer chunk : chunks) {
+            System.arraycopy(chunk.array(), 0, bytes, offset, chunk.position());
+            offset += chunk.position();
+        }
+        return bytes;
+    }
+
+    public synchronized String getText(Charset charset) throws IOException {
+        checkReleased();
+        if(null == file && chunks.size() == 1) {
+            ByteBuffer chunk = chunks.get(0);
+            return new String(chunk.array(), 0, chunk.position(), charset);
+        }
+        return new String(getBytes(), charset);
+    }
+
+    /**
+     * 以檔案的形式取得內容，記憶體模式時會先寫入暫存檔
+     */
+    public synchronized File toFile() throws IOException {
+        checkReleased();
+        if(null == file) spill().close();
+        return file;
+    }
+
+    /**
+     * 歸還記憶體緩衝區，可重複呼叫；暫存檔由 TempFileScope 刪除
+     */
+    public synchronized void release() {
+        if(isReleased) return;
+        isReleased = true;
+        try {
+            if(null != fileOutput) fileOutput.close();
+        } catch (Exception e) {
+            // e.printStackTrace();
+        }
+        fileOutput = null;
+        recycleChunks();
+    }
+
+    // 將記憶體中的內容寫入暫存檔並歸還緩衝區，回傳可繼續寫入的 OutputStream
+    private OutputStream spill() throws IOException {
+        String file_name = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss_SSS")) + "_" + RandomServiceStatic.getInstance().getLowerCaseRandomString(4);
+        File temp_file = TempFileServiceStatic.getInstance().createTempFile(file_name, tempFileScope);
+        OutputStream outputStream = new FileOutputStream(temp_file);
+        try {
+            for(ByteBuffer chunk : chunks) {
+                outputStream.write(chunk.array(), 0, chunk.position());
+            }
+        } catch (IOException e) {
+            outputStream.close();
+            throw e;
+        }
+        recycleChunks();
+        this.file = temp_file;
+        return outputStream;
+    }
+
+    // 歸還記憶體模式的緩衝區，仍有 InputStream 讀取中時延後歸還
+    private void recycleChunks() {
+        if(openStreams > 0) {
+            retiredChunks.addAll(chunks);
+        } else {
+            for(ByteBuffer chunk : chunks) ByteBufferPoolStatic.getInstance().release(chunk);
+        }
+        chunks.clear();
+    }
+
+    private synchronized void closeStream() {
+        openStreams--;
+        if(openStreams > 0) return;
+        for(ByteBuffer chunk : retiredChunks) ByteBufferPoolStatic.getInstance().release(chunk);
+        retiredChunks.clear();
+    }
+
+    private void checkReleased() throws IOException {
+        if(isReleased) throw new IOException("請求內容已釋放，無法再讀取");
+    }
+
+}
@@ -3,10 +3,7 @@ package framework.web.executor;
 import framework.observer.Bundle;
 import framework.observer.Message;
 import framework.web.context.AsyncActionContext;
-import framework.web.handler.RequestHandler;
-
-import java.lang.ref.WeakReference;
-import java.util.ArrayList;
+import framework.web.handler.RequestHandlerChain;
 
 public class WebAppServiceExecutor {
 
@@ -17,10 +14,11 @@ public class WebAppServiceExecutor {
     }
 
     public void startup() {
-        ArrayList<RequestHandler> handlers = getHandlerChain();
+        WebAppServicePool pool = WebAppServicePoolStatic.getInstance();
+        RequestHandlerChain chain = getHandlerChain(pool);
         // 尚未成功建立責任鏈時
         {
-            if (handlers.isEmpty()) {
+            if (0 == chain.size()) {
                 Bundle b = new Bundle();
                 b.putString("status", "fail");
                 b.putString("msg", "not_exist_request_handler");
@@ -31,9 +29,13 @@ public class WebAppServiceExecutor {
                 return;
             }
         }
-        // 確認具有責任鏈，由第一節點進入開始執行
+        // 確認具有責任鏈，由第一節點進入開始執行；啟用路由索引時則直接派發至符合的節點
         try {
-            handlers.get(0).startup(requestContext);
+            if(pool.isRouteEnabled()) {
+                pool.getRouteTable().dispatch(chain, requestContext);
+            } else {
+                chain.startup(0, requestContext);
+            }
         } catch (Exception e) {
             // 當有 RequestHandler 開始處理時，但是在尚未到達 requestContext.complete() 結束時，
             // 程序中間出現任何未被擷取的 Exception 的情況下，就會呼叫此處的 Exception 處理，
@@ -52,34 +54,15 @@ public class WebAppServiceExecutor {
     }
 
     /**
-     * 此處重新建立各個 Handler 新實例(new Instance)的用意在於執行緒安全(Thread Safe)，
-     * 雖然 Executor 層級已經是新實例，但如果 Handler 層級沒有採用新實例，
-     * 而是一律採用初始化建立的實例時，會發生 AsyncContext 執行緒不安全的情況，
-     * 使用者有可能使用到對方的請求責任鏈實例，進而發生短時間內可能重複 complete 的錯誤，
-     * 藉由此方法修正該錯誤，加強套件功能的隔離性與穩健度
+     * 每個請求使用獨立的 RequestHandlerChain 的用意在於執行緒安全(Thread Safe)，
+     * 如果具有狀態的 Handler 一律採用初始化建立的實例時，會發生 AsyncContext 執行緒不安全的情況，
+     * 使用者有可能使用到對方的請求責任鏈實例，進而發生短時間內可能重複 complete 的錯誤；
+     * 具有狀態的 Handler 只會在被走訪到時才建立新實例，isStateless() 的 Handler 則共用範本實例
      */
-    private ArrayList<RequestHandler> getHandlerChain() {
-        ArrayList<RequestHandler> handlers = WebAppServicePoolStatic.getInstance().prototype(); // 物件範本
-        ArrayList<RequestHandler> runHandlers = new ArrayList<>(); // 新實例容器（實際被運作的責任鏈節點實例）
-        // 建立新實例，因為是由 ArrayList 實作所以經過 foreach 取出時順序是不變的
-        for (RequestHandler rawHandler : handlers) {
-            try {
-                RequestHandler newHandler = rawHandler.getClass().getConstructor().newInstance();
-                runHandlers.add( new WeakReference<>( newHandler ).get() );
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-        }
-        // 重新建立新實例間的責任鏈關係（requestHandler 要知道是否還有下一位處理者）
-        if(!runHandlers.isEmpty()) {
-            // 首節點不具有前一個節點，所以可由 null 值判斷，接下來都將現有節點設定為上一個節點的 nextHandler
-            RequestHandler prevHandler = null;
-            for(RequestHandler runHandler : runHandlers) {
-                if(null != prevHandler) prevHandler.setNextHandler(runHandler);
-                prevHandler = runHandler;
-            }
-        }
-        return new WeakReference<>( runHandlers ).get();
+    private RequestHandlerChain getHandlerChain(WebAppServicePool pool) {
+        RequestHandlerChain chain = pool.newHandlerChain();
+        requestContext.setHandlerChain(chain);
+        return chain;
     }
 
 }
@@ -1,17 +1,54 @@
 package framework.web.executor;
 
+import framework.logs.LoggerService;
+import framework.web.context.AsyncActionContext;
 import framework.web.handler.RequestHandler;
+import framework.web.handler.RequestHandlerChain;
+import framework.web.handler.RequestRoute;
+import framework.web.handler.RequestRouteTable;
+import framework.web.multipart.UploadLimit;
 
+import java.lang.reflect.Constructor;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 public abstract class WebAppServicePool {
 
     private final ArrayList<RequestHandler> handlers = new ArrayList<>();
 
+    private boolean isRouteEnabled = false;
+    private volatile RequestRouteTable routeTable = null;
+    private volatile ArrayList<Constructor<? extends RequestHandler>> constructors = null;
+
+    private volatile long defaultTimeout = 0; // 請求逾時時間（ms），0 表示無限制
+    private final ConcurrentHashMap<String, AtomicLong> timeoutCounts = new ConcurrentHashMap<>();
+
+    private volatile UploadLimit uploadLimit = new UploadLimit.Builder().build(); // 全域上傳限制，預設無限制
+
     WebAppServicePool() {}
 
+    /**
+     * 具有狀態（isStateless() 為 false）的 Handler 每個請求都會建立新實例，
+     * 必須具有 public 無參數建構子，否則不加入責任鏈
+     */
     public void addHandler(RequestHandler handler) {
+        if(!handler.isStateless()) {
+            try {
+                handler.getClass().getConstructor();
+            } catch (Exception e) {
+                e.printStackTrace();
+                String msg_zht = handler.getClass().getName() + " 不具有 public 無參數建構子，無法為每個請求建立新實例，不加入責任鏈";
+                LoggerService.logERROR(msg_zht);
+                System.err.println(msg_zht);
+                return;
+            }
+        }
         handlers.add(handler);
+        routeTable = null; // 責任鏈改變時需要重新編譯路由索引
+        constructors = null;
     }
 
     public RequestHandler getHandler(int index) {
@@ -22,4 +59,127 @@ public abstract class WebAppServicePool {
         return handlers;
     }
 
+    /**
+     * 啟用路由索引派發，有宣告 getRoute() 的 Handler 將不再需要逐一經過責任鏈判斷
+     */
+    public void setRouteEnabled(boolean isRouteEnabled) {
+        this.isRouteEnabled = isRouteEnabled;
+    }
+
+    public boolean isRouteEnabled() {
+        return this.isRouteEnabled;
+    }
+
+    /**
+     * 於所有 Handler 加入後編譯路由索引，未呼叫時會於第一個請求進入時編譯
+     */
+    public void compileRoutes() {
+        synchronized (handlers) {
+            routeTable = new RequestRouteTable(handlers);
+        }
+    }
+
+    public RequestRouteTable getRouteTable() {
+        RequestRouteTable table = routeTable;
+        if(null == table) {
+            synchronized (handlers) {
+                if(null == routeTable) {
+                    routeTable = new RequestRouteTable(handlers);
+                }
+                table = routeTable;
+            }
+        }
+        return table;
+    }
+
+    /**
+     * 設定請求預設的逾時時間（ms），RequestRoute 有設定 timeout 時以路由設定為主，
+     * 逾時的請求會被取消（AsyncActionContext.getCancellationToken()）並回應 503
+     */
+    public void setDefaultTimeout(long milliSecond) {
+        if(milliSecond < 0) {
+            System.err.println("逾時時間必須是一個不小於 0 的整數");
+            return;
+        }
+        this.defaultTimeout = milliSecond;
+    }
+
+    public long getDefaultTimeout() {
+        return this.defaultTimeout;
+    }
+
+    /**
+     * 設定全域的上傳請求大小限制，RequestRoute 有設定 uploadLimit 時以路由設定為主
+     */
+    public void setUploadLimit(UploadLimit uploadLimit) {
+        if(null == uploadLimit) return;
+        this.uploadLimit = uploadLimit;
+    }
+
+    /**
+     * 取得該請求適用的上傳限制：依責任鏈順序第一個符合且有設定 uploadLimit 的路由，沒有時採用全域設定
+     */
+    public UploadLimit getUploadLimit(AsyncActionContext requestContext) {
+        for(RequestHandler handler : handlers) {
+            RequestRoute route = handler.getRoute();
+            if(null == route || null == route.getUploadLimit()) continue;
+            if(route.matchBeforeBody(requestContext)) return route.getUploadLimit();
+        }
+        return this.uploadLimit;
+    }
+
+    /**
+     * 記錄逾時的請求是由哪一個 Handler 處理中
+     */
+    public void markTimeout(String handlerName) {
+        if(null == handlerName) handlerName = "none";
+        timeoutCounts.computeIfAbsent(handlerName, k -> new AtomicLong(0)).incrementAndGet();
+    }
+
+    /**
+     * 各 Handler 的逾時次數
+     */
+    public HashMap<String, Long> getTimeoutCounts() {
+        HashMap<String, Long> map = new HashMap<>();
+        for(Map.Entry<String, AtomicLong> entry : timeoutCounts.entrySet()) {
+            map.put(entry.getKey(), entry.getValue().get());
+        }
+        return map;
+    }
+
+    /**
+     * 建立該請求專用的責任鏈，具有狀態的 Handler 會於被走訪時才以快取的 Constructor 建立新實例
+     */
+    public RequestHandlerChain newHandlerChain() {
+        ArrayList<Constructor<? extends RequestHandler>> list = constructors;
+        if(null == list) {
+            synchronized (handlers) {
+                if(null == constructors) {
+                    constructors = createConstructors();
+                }
+                list = constructors;
+            }
+        }
+        return new RequestHandlerChain(handlers, list, defaultTimeout);
+    }
+
+    private ArrayList<Constructor<? extends RequestHandler>> createConstructors() {
+        ArrayList<Constructor<? extends RequestHandler>> list = new ArrayList<>();
+        for(RequestHandler handler : handlers) {
+            if(handler.isStateless()) {
+                list.add(null);
+                continue;
+            }
+            try {
+                list.add(handler.getClass().getConstructor());
+            } catch (Exception e) {
+                // 經由 prototype() 直接加入的 Handler 未經 addHandler() 檢查，RequestHandlerChain 會略過此節點
+                e.printStackTrace();
+                LoggerService.logERROR(handler.getClass().getName() + " 不具有 public 無參數建構子，略過此 Handler");
+                list.add(null);
+            }
+        }
+        return list;
+    }
+
 }
@@ -8,6 +8,10 @@ import framework.web.context.AsyncActionContext;
  * 並由 AsyncActionContext 內容實際進行處理，
  * 也可以在 RequestHandler 實例中實作子責任鏈，
  * 由子責任鏈處理更複雜的請求內容
+ * -
+ * 也可以藉由 getRoute() 宣告路由條件，
+ * 啟用 WebAppServicePool.setRouteEnabled(true) 後將由 RequestRouteTable 直接派發，
+ * 不需要依序經過每一個 Handler 的 checkIsMyJob()
  */
 public abstract class RequestHandler {
 
@@ -23,6 +27,14 @@ public abstract class RequestHandler {
      */
     protected abstract boolean checkIsMyJob(AsyncActionContext requestContext);
 
+    /**
+     * Handler 宣告的路由條件，預設為 null 表示僅以 checkIsMyJob() 判斷，
+     * 覆寫時應回傳 static final 的 RequestRoute 實例，並於 checkIsMyJob() 中使用 RequestRoute.match()
+     */
+    public RequestRoute getRoute() {
+        return null;
+    }
+
     /**
      * 設定下一位 Handler
      */
@@ -30,12 +42,27 @@ public abstract class RequestHandler {
         this.nextRequestHandler = handler;
     }
 
+    /**
+     * 宣告該 Handler 是否為無狀態（不在欄位中保存任何請求內容，僅透過參數傳遞 AsyncActionContext），
+     * 無狀態的 Handler 會被所有請求共用同一個實例，預設為 false 表示每個請求使用新實例
+     */
+    public boolean isStateless() {
+        return false;
+    }
+
     /**
      * 如果該項工作不屬於這位 Handler 轉交給下一個 Handler
+     * 有以 setNextHandler() 指定下一位時優先採用（例如子責任鏈），
+     * 否則由該請求的 RequestHandlerChain 決定下一位
      */
     protected void passToNext(AsyncActionContext requestContext) {
         if(null != nextRequestHandler) {
             this.nextRequestHandler.startup(requestContext);
+            return;
+        }
+        RequestHandlerChain chain = requestContext.getHandlerChain();
+        if(null != chain) {
+            chain.passToNext(requestContext);
         } else {
             // 如果是持續遞交到沒有下一個 handler 表示為無效的請求
             requestContext.getInvalidRequestHandler().obtainMessage().sendToTarget();
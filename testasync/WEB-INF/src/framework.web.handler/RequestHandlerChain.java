@@ -0,0 +1,106 @@
+package framework.web.handler;
+
+import framework.web.context.AsyncActionContext;
+
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+
+/**
+ * 每個請求獨立的責任鏈，由 AsyncActionContext 持有並作為責任鏈狀態的 per-request scope：
+ * 宣告為 isStateless() 的 Handler 直接使用 WebAppServicePool 中的範本實例；
+ * 其餘具有狀態的 Handler 則在實際被走訪到時才建立新實例（每個請求最多建立一次），
+ * 藉此確保 AsyncContext 執行緒安全，又不需要在每個請求中對所有 Handler 進行 reflection 建立實例
+ */
+public class RequestHandlerChain {
+
+    private final ArrayList<RequestHandler> prototypes;
+    private final ArrayList<Constructor<? extends RequestHandler>> constructors; // stateless 節點（或無法建立實例的節點）為 null
+    private final RequestHandler[] instances;
+    private final long defaultTimeout;
+    private int position = -1; // 目前執行中的節點位置
+    private RequestRouteTable routeTable = null; // 由 RequestRouteTable 派發時，略過不符合路由的節點
+    private int routeIndex = -1;
+
+    public RequestHandlerChain(ArrayList<RequestHandler> prototypes, ArrayList<Constructor<? extends RequestHandler>> constructors, long defaultTimeout) {
+        this.prototypes = prototypes;
+        this.constructors = constructors;
+        this.instances = new RequestHandler[prototypes.size()];
+        this.defaultTimeout = defaultTimeout;
+    }
+
+    public int size() {
+        return this.instances.length;
+    }
+
+    /**
+     * 取得該位置於此請求中使用的 Handler 實例，具有狀態的 Handler 會於第一次取得時建立
+     */
+    public RequestHandler get(int index) {
+        RequestHandler handler = instances[index];
+        if(null != handler) return handler;
+        Constructor<? extends RequestHandler> constructor = constructors.get(index);
+        if(null == constructor) {
+            handler = prototypes.get(index);
+            // 具有狀態卻無法建立新實例的 Handler 略過，不與其他請求共用範本實例
+            if(!handler.isStateless()) return null;
+        } else {
+            try {
+                handler = constructor.newInstance();
+            } catch (Exception e) {
+                e.printStackTrace();
+                return null;
+            }
+        }
+        instances[index] = handler;
+        return handler;
+    }
+
+    /**
+     * 目前執行中的 Handler，尚未開始時回傳 null
+     */
+    public RequestHandler getCurrent() {
+        if(position < 0 || position >= size()) return null;
+        return instances[position];
+    }
+
+    /**
+     * 由 RequestRouteTable 派發，自第一個節點開始處理該請求，
+     * 已宣告路由的節點只有符合的 routeIndex（沒有符合時為 -1）會被走訪，其餘節點依序走訪
+     */
+    void startup(RequestRouteTable routeTable, int routeIndex, AsyncActionContext requestContext) {
+        this.routeTable = routeTable;
+        this.routeIndex = routeIndex;
+        startup(0, requestContext);
+    }
+
+    /**
+     * 由指定位置的 Handler 開始處理該請求
+     */
+    public void startup(int index, AsyncActionContext requestContext) {
+        for(int i = index; i < size(); i++) {
+            if(null != routeTable && i != routeIndex && routeTable.isRouted(i)) continue;
+            RequestHandler handler = get(i);
+            if(null == handler) continue; // 建立實例失敗的節點直接略過
+            this.position = i;
+            // 依該節點的路由設定調整請求逾時時間，沒有設定時採用預設值
+            {
+                RequestRoute route = handler.getRoute();
+                long timeout = defaultTimeout;
+                if(null != route && route.getTimeout() > 0) timeout = route.getTimeout();
+                requestContext.setRequestTimeout(timeout);
+            }
+            handler.startup(requestContext);
+            return;
+        }
+        // 如果是持續遞交到沒有下一個 handler 表示為無效的請求
+        requestContext.getInvalidRequestHandler().obtainMessage().sendToTarget();
+    }
+
+    /**
+     * 轉交給目前節點的下一位 Handler
+     */
+    public void passToNext(AsyncActionContext requestContext) {
+        startup(this.position + 1, requestContext);
+    }
+
+}
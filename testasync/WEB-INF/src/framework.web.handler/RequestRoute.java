@@ -0,0 +1,219 @@
+package framework.web.handler;
+
+import framework.web.context.AsyncActionContext;
+import framework.web.multipart.UploadLimit;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+
+/**
+ * RequestHandler 可宣告的路由條件，
+ * 未設定的條件表示不限制，所有已設定的條件都符合時才算是該 Handler 的工作，
+ * 啟用 WebAppServicePool.setRouteEnabled(true) 後會於啟動時編譯為 RequestRouteTable 索引
+ * -
+ * method -> HTTP Method，例如 GET, POST
+ * pathPrefix -> 以路徑區段為單位的前綴，例如 /api 符合 /api 與 /api/user，但不符合 /apix
+ * extension -> 請求路徑資源的副檔名，例如 js, css
+ * contentType -> 請求 Content-Type 包含的字串，例如 application/json
+ * act -> HTTP Parameters 中 act 參數的值
+ * isFileAction -> 是否為具有上傳檔案的請求
+ * timeout -> 由該 Handler 處理時的請求逾時時間（ms），0 表示採用 WebAppServicePool 的預設值
+ * uploadLimit -> 上傳內容的大小限制，null 表示採用 WebAppServicePool 的全域設定；
+ *                因為需要在讀取請求內容之前決定，只會以 method、pathPrefix、extension 及 contentType 判斷
+ */
+public class RequestRoute {
+
+    private final HashSet<String> methods; // 大寫，空集合表示不限制
+    private final String pathPrefix;
+    private final ArrayList<String> pathSegments;
+    private final HashSet<String> extensions; // 小寫，空集合表示不限制
+    private final String contentType; // 小寫
+    private final HashSet<String> acts; // 小寫，空集合表示不限制
+    private final Boolean isFileAction;
+    private final long timeout;
+    private final UploadLimit uploadLimit;
+
+    private RequestRoute(HashSet<String> methods, String pathPrefix, HashSet<String> extensions, String contentType, HashSet<String> acts, Boolean isFileAction, long timeout, UploadLimit uploadLimit) {
+        this.methods = methods;
+        this.pathPrefix = pathPrefix;
+        this.pathSegments = splitPath(pathPrefix);
+        this.extensions = extensions;
+        this.contentType = contentType;
+        this.acts = acts;
+        this.isFileAction = isFileAction;
+        this.timeout = timeout;
+        this.uploadLimit = uploadLimit;
+    }
+
+    /**
+     * 完整比對該請求是否符合此路由條件，可直接使用於 checkIsMyJob() 之中
+     */
+    public boolean match(AsyncActionContext requestContext) {
+        if(!matchPath(requestContext.getUrlPath())) return false;
+        if(!extensions.isEmpty()) {
+            String exten = requestContext.getResourceExtension();
+            if(null == exten || !extensions.contains(exten.toLowerCase(Locale.ENGLISH))) return false;
+        }
+        if(!acts.isEmpty()) {
+            String act = getAct(requestContext);
+            if(null == act || !acts.contains(act.toLowerCase(Locale.ENGLISH))) return false;
+        }
+        return matchResidual(requestContext);
+    }
+
+    public String getPathPrefix() {
+        return this.pathPrefix;
+    }
+
+    public long getTimeout() {
+        return this.timeout;
+    }
+
+    public UploadLimit getUploadLimit() {
+        return this.uploadLimit;
+    }
+
+    /**
+     * 僅以讀取請求內容之前即可得知的條件比對（不包含 act 及 isFileAction），用於決定上傳限制
+     */
+    public boolean matchBeforeBody(AsyncActionContext requestContext) {
+        if(!matchPath(requestContext.getUrlPath())) return false;
+        if(!extensions.isEmpty()) {
+            String exten = requestContext.getResourceExtension();
+            if(null == exten || !extensions.contains(exten.toLowerCase(Locale.ENGLISH))) return false;
+        }
+        if(!methods.isEmpty()) {
+            String method = requestContext.getMethod();
+            if(null == method || !methods.contains(method.toUpperCase(Locale.ENGLISH))) return false;
+        }
+        if(null != contentType) {
+            String reqContentType = requestContext.getHttpRequest().getContentType();
+            if(null == reqContentType || !reqContentType.toLowerCase(Locale.ENGLISH).contains(contentType)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * 除了路徑、副檔名及 act 以外（已由 RequestRouteTable 索引處理）的條件比對
+     */
+    boolean matchResidual(AsyncActionContext requestContext) {
+        if(null != isFileAction && isFileAction != requestContext.isFileAction()) return false;
+        if(!methods.isEmpty()) {
+            String method = requestContext.getMethod();
+            if(null == method || !methods.contains(method.toUpperCase(Locale.ENGLISH))) return false;
+        }
+        if(null != contentType) {
+            String reqContentType = requestContext.getHttpRequest().getContentType();
+            if(null == reqContentType || !reqContentType.toLowerCase(Locale.ENGLISH).contains(contentType)) return false;
+        }
+        return true;
+    }
+
+    ArrayList<String> getPathSegments() {
+        return this.pathSegments;
+    }
+
+    HashSet<String> getExtensions() {
+        return this.extensions;
+    }
+
+    HashSet<String> getActs() {
+        return this.acts;
+    }
+
+    static String getAct(AsyncActionContext requestContext) {
+        LinkedHashMap<String, String> params = requestContext.getParameters();
+        if(null == params) return null;
+        return params.get("act");
+    }
+
+    // 以 "/" 切分路徑區段，忽略空白區段
+    static ArrayList<String> splitPath(String path) {
+        ArrayList<String> segments = new ArrayList<>();
+        if(null == path) return segments;
+        for(String segment : path.split("/")) {
+            if(!segment.isEmpty()) segments.add(segment);
+        }
+        return segments;
+    }
+
+    private boolean matchPath(String urlPath) {
+        if(pathSegments.isEmpty()) return true;
+        ArrayList<String> urlSegments = splitPath(urlPath);
+        if(urlSegments.size() < pathSegments.size()) return false;
+        for(int i = 0, len = pathSegments.size(); i < len; i++) {
+            if(!pathSegments.get(i).equals(urlSegments.get(i))) return false;
+        }
+        return true;
+    }
+
+    public static class Builder {
+
+        private final HashSet<String> methods = new HashSet<>();
+        private String pathPrefix = null;
+        private final HashSet<String> extensions = new HashSet<>();
+        private String contentType = null;
+        private final HashSet<String> acts = new HashSet<>();
+        private Boolean isFileAction = null;
+        private long timeout = 0;
+        private UploadLimit uploadLimit = null;
+
+        public RequestRoute.Builder addMethod(String method) {
+            if(null != method) this.methods.add(method.toUpperCase(Locale.ENGLISH));
+            return this;
+        }
+
+        public RequestRoute.Builder setPathPrefix(String pathPrefix) {
+            this.pathPrefix = pathPrefix;
+            return this;
+        }
+
+        public RequestRoute.Builder addExtension(String extension) {
+            if(null != extension) this.extensions.add(extension.toLowerCase(Locale.ENGLISH));
+            return this;
+        }
+
+        public RequestRoute.Builder setContentType(String contentType) {
+            if(null != contentType) this.contentType = contentType.toLowerCase(Locale.ENGLISH);
+            return this;
+        }
+
+        public RequestRoute.Builder addAct(String act) {
+            if(null != act) this.acts.add(act.toLowerCase(Locale.ENGLISH));
+            return this;
+        }
+
+        public RequestRoute.Builder setIsFileAction(boolean isFileAction) {
+            this.isFileAction = isFileAction;
+            return this;
+        }
+
+        /**
+         * 設定由該 Handler 處理時的請求逾時時間（ms）
+         */
+        public RequestRoute.Builder setTimeout(long milliSecond) {
+            if(milliSecond < 0) {
+                System.err.println("逾時時間必須是一個不小於 0 的整數");
+                return this;
+            }
+            this.timeout = milliSecond;
+            return this;
+        }
+
+        /**
+         * 設定符合此路由的上傳請求大小限制
+         */
+        public RequestRoute.Builder setUploadLimit(UploadLimit uploadLimit) {
+            this.uploadLimit = uploadLimit;
+            return this;
+        }
+
+        public RequestRoute build() {
+            return new RequestRoute(methods, pathPrefix, extensions, contentType, acts, isFileAction, timeout, uploadLimit);
+        }
+
+    }
+
+}
@@ -0,0 +1,130 @@
+package framework.web.handler;
+
+import framework.web.context.AsyncActionContext;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Locale;
+
+/**
+ * 由 RequestHandler.getRoute() 宣告的路由條件，於啟動時編譯而成的路由索引：
+ * 路徑前綴以 trie 儲存（依路徑區段長度查詢），副檔名及 act 參數以 HashMap 儲存，
+ * 各索引以 BitSet 表示符合的 Handler 位置，取交集後依責任鏈順序取得第一個符合的 Handler。
+ * -
+ * 未宣告路由（getRoute() 為 null）的 Handler 仍會依責任鏈順序以 checkIsMyJob() 判斷，
+ * 所以只有位於第一個符合路由的 Handler 之前的那些 Handler 需要被檢查，維持原本責任鏈的優先順序
+ */
+public class RequestRouteTable {
+
+    private final int size;
+    private final RequestRoute[] routes;
+    private final TrieNode root = new TrieNode();
+    private final HashMap<String, BitSet> actIndex = new HashMap<>();
+    private final BitSet anyAct = new BitSet(); // 不限制 act 的路由
+    private final HashMap<String, BitSet> extenIndex = new HashMap<>();
+    private final BitSet anyExten = new BitSet(); // 不限制副檔名的路由
+
+    public RequestRouteTable(ArrayList<RequestHandler> handlers) {
+        this.size = handlers.size();
+        this.routes = new RequestRoute[size];
+        for(int i = 0; i < size; i++) {
+            RequestRoute route = handlers.get(i).getRoute();
+            if(null == route) continue;
+            routes[i] = route;
+            // path trie
+            {
+                TrieNode node = root;
+                for(String segment : route.getPathSegments()) {
+                    node = node.children.computeIfAbsent(segment, k -> new TrieNode());
+                }
+                node.routes.set(i);
+            }
+            // act index
+            if(route.getActs().isEmpty()) {
+                anyAct.set(i);
+            } else {
+                for(String act : route.getActs()) {
+                    actIndex.computeIfAbsent(act, k -> new BitSet()).set(i);
+                }
+            }
+            // extension index
+            if(route.getExtensions().isEmpty()) {
+                anyExten.set(i);
+            } else {
+                for(String exten : route.getExtensions()) {
+                    extenIndex.computeIfAbsent(exten, k -> new BitSet()).set(i);
+                }
+            }
+        }
+    }
+
+    /**
+     * 該位置的 Handler 是否有宣告路由條件
+     */
+    public boolean isRouted(int index) {
+        return null != routes[index];
+    }
+
+    /**
+     * 取得第一個符合路由條件的 Handler 位置，沒有符合時回傳 -1
+     */
+    public int findRoute(AsyncActionContext requestContext) {
+        BitSet candidates = new BitSet();
+        // path
+        {
+            TrieNode node = root;
+            candidates.or(node.routes);
+            String urlPath = requestContext.getUrlPath();
+            if(null != urlPath) {
+                for(String segment : RequestRoute.splitPath(urlPath)) {
+                    node = node.children.get(segment);
+                    if(null == node) break;
+                    candidates.or(node.routes);
+                }
+            }
+        }
+        if(candidates.isEmpty()) return -1;
+        // act
+        {
+            BitSet acts = (BitSet) anyAct.clone();
+            String act = RequestRoute.getAct(requestContext);
+            if(null != act) {
+                BitSet hit = actIndex.get(act.toLowerCase(Locale.ENGLISH));
+                if(null != hit) acts.or(hit);
+            }
+            candidates.and(acts);
+        }
+        if(candidates.isEmpty()) return -1;
+        // extension
+        {
+            BitSet extens = (BitSet) anyExten.clone();
+            String exten = requestContext.getResourceExtension();
+            if(null != exten) {
+                BitSet hit = extenIndex.get(exten.toLowerCase(Locale.ENGLISH));
+                if(null != hit) extens.or(hit);
+            }
+            candidates.and(extens);
+        }
+        // method, content-type, file action
+        for(int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+            if(routes[i].matchResidual(requestContext)) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * 依路由索引派發請求至該請求的責任鏈節點（與建立索引時的 Handler 順序相同）：
+     * 位於符合路由之前且未宣告路由的 Handler 仍具有優先權，不符合的已宣告路由 Handler 則直接略過，
+     * 由各節點的 startup() 自行以 checkIsMyJob() 判斷，每個節點最多判斷一次
+     */
+    public void dispatch(RequestHandlerChain chain, AsyncActionContext requestContext) {
+        chain.startup(this, findRoute(requestContext), requestContext);
+    }
+
+    private static class TrieNode {
+        private final HashMap<String, TrieNode> children = new HashMap<>();
+        private final BitSet routes = new BitSet();
+    }
+
+}
@@ -0,0 +1,102 @@
+package framework.web.listener;
+
+import framework.bytebuf.ByteBufferPoolStatic;
+import framework.logs.LoggerService;
+import framework.observer.Bundle;
+import framework.observer.Handler;
+import framework.observer.Message;
+import framework.web.context.RequestBody;
+import framework.web.multipart.UploadLimit;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletInputStream;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+
+/**
+ * 以非同步的方式讀取 application/json, text/plain 等非 multipart 的請求內容至 RequestBody，
+ * 只在資料可讀取時才由容器呼叫 onDataAvailable，傳送緩慢的用戶端不會佔用任何執行緒
+ * -
+ * 全部讀取完成時以 status = done 通知 handler，
+ * 超過 UploadLimit 的 maxRequestSize 時停止讀取並以 status = too_large 通知，發生錯誤時以 status = fail 通知
+ */
+public class AsyncBodyReadListener implements ReadListener {
+
+    private final ServletInputStream inputStream;
+    private final RequestBody requestBody;
+    private final UploadLimit uploadLimit;
+    private final Handler handler;
+    private final ByteBuffer readBuffer = ByteBufferPoolStatic.getInstance().acquire(); // closeStream() 時歸還
+    private boolean isClosed = false;
+
+    public AsyncBodyReadListener(ServletInputStream servletInputStream, RequestBody requestBody, UploadLimit uploadLimit, Handler handler) {
+        this.inputStream = new WeakReference<>( servletInputStream ).get();
+        this.requestBody = requestBody;
+        this.uploadLimit = null == uploadLimit ? new UploadLimit.Builder().build() : uploadLimit;
+        this.handler = handler;
+    }
+
+    @Override
+    public void onDataAvailable() throws IOException {
+        if(isClosed) return;
+        byte[] bytes = readBuffer.array();
+        int bytesRead;
+        while (inputStream.isReady() && (bytesRead = inputStream.read(bytes)) != -1) {
+            if (bytesRead <= 0) continue;
+            if (uploadLimit.isRequestTooLarge(requestBody.getSize() + bytesRead)) {
+                abort();
+                return;
+            }
+            requestBody.write(bytes, 0, bytesRead);
+        }
+    }
+
+    @Override
+    public void onAllDataRead() throws IOException {
+        if(isClosed) return;
+        requestBody.finish();
+        closeStream();
+        sendStatus("done", null);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        if(isClosed) return;
+        throwable.printStackTrace();
+        closeStream();
+        requestBody.release();
+        sendStatus("fail", null);
+    }
+
+    // 超過上傳限制時停止讀取，剩餘的請求內容由容器處理
+    private void abort() {
+        String msg_zht = "請求內容超過大小限制：" + uploadLimit.getMaxRequestSize() + " bytes";
+        LoggerService.logERROR(msg_zht);
+        closeStream();
+        requestBody.release();
+        sendStatus("too_large", msg_zht);
+    }
+
+    private void sendStatus(String status, String msg_zht) {
+        if(null == handler) return;
+        Bundle b = new Bundle();
+        b.putString("status", status);
+        if(null != msg_zht) b.putString("msg_zht", msg_zht);
+        Message m = handler.obtainMessage();
+        m.setData(b);
+        m.sendToTarget();
+    }
+
+    private void closeStream() {
+        if(isClosed) return;
+        isClosed = true;
+        ByteBufferPoolStatic.getInstance().release(readBuffer);
+        try {
+            inputStream.close();
+        } catch (Exception e) {
+            // e.printStackTrace();
+        }
+    }
+
+}
@@ -1,38 +1,39 @@
 package framework.web.listener;
 
-import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
-import framework.file.FileFinder;
+import framework.bytebuf.ByteBufferPoolStatic;
+import framework.file.TempFileScope;
+import framework.file.TempFileServiceStatic;
 import framework.logs.LoggerService;
 import framework.observer.Bundle;
 import framework.observer.Handler;
 import framework.observer.Message;
 import framework.random.RandomServiceStatic;
+import framework.text.GsonServiceStatic;
+import framework.web.multipart.MultipartParser;
+import framework.web.multipart.UploadLimit;
+import framework.web.multipart.UploadLimitException;
+import framework.web.multipart.UploadProgress;
+import framework.web.multipart.UploadProgressServiceStatic;
 import jakarta.servlet.ReadListener;
 import jakarta.servlet.ServletInputStream;
-import org.apache.tomcat.util.http.fileupload.MultipartStream;
 import org.apache.tomcat.util.http.fileupload.ParameterParser;
 
 import java.io.*;
 import java.lang.ref.WeakReference;
 import java.nio.ByteBuffer;
-import java.nio.channels.Channels;
-import java.nio.channels.FileChannel;
-import java.nio.channels.ReadableByteChannel;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.nio.file.Files;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * #230426 已採用 ChatGPT 重構並確認效率
  * -
- * <a href="https://tomcat.apache.org/tomcat-7.0-doc/api/org/apache/tomcat/util/http/fileupload/MultipartStream.html">...</a>
  * <a href="https://medium.com/@clu1022/%E6%B7%BA%E8%AB%87i-o-model-32da09c619e6">...</a>
  * <a href="https://www.slideshare.net/SimoneBordet/servlet-31-async-io">...</a>
  * <a href="https://openhome.cc/Gossip/ServletJSP/ReadListener.html">...</a>
@@ -41,126 +42,99 @@ import java.util.regex.Pattern;
  * 當伺服器有空閒的時間可以處理上傳資料時會調用 onDataAvailable，
  * 調用 onDataAvailable 是一個重複性的動作，
  * 直到該請求所有上傳的資料都傳遞完成才會呼叫 onAllDataRead
+ * -
+ * 於 onDataAvailable 中直接以 MultipartParser 增量解析，上傳檔案直接寫入各自的暫存檔，
+ * 文字欄位保留於記憶體中，不再將整個請求內容另外暫存為檔案後重新讀取；
+ * 每個 part 完成時會以 status = part 通知 handler，全部完成時以 status = done 通知
+ * -
+ * 讀取過程中超過 UploadLimit 時立即停止讀取、刪除已寫入的暫存檔，並以 status = too_large 通知 handler
+ * -
+ * 設定 setUploadProgress() 時同步更新已讀取的大小與目前的 part，供其他執行緒讀取上傳進度
  */
-public class AsyncReadListener implements ReadListener {
+public class AsyncReadListener implements ReadListener, MultipartParser.Callback {
 
-    ServletInputStream inputStream;
-    String boundary_string;
-    Handler handler = null;
+    private final ServletInputStream inputStream;
+    private final Handler handler;
+    private final UploadLimit uploadLimit;
+    private MultipartParser parser = null;
+    private UploadProgress uploadProgress = null;
+    private final ByteBuffer readBuffer = ByteBufferPoolStatic.getInstance().acquire(); // closeStream() 時歸還
+    private boolean isClosed = false;
 
-    ReadableByteChannel inputChannel;
-    FileOutputStream outputStream;
-    FileChannel outputChannel;
+    private TempFileScope tempFileScope = null; // 請求結束時刪除暫存檔，未設定時由 TempFileService 的 sweeper 清除
 
-    Path temp_file_dir;
-    String dir_slash = System.getProperty("file.separator");
-    File multi_part_file;
+    private final JsonArray data_arr = new JsonArray();
+    private final ArrayList<File> part_files = new ArrayList<>(); // 已建立的暫存檔，發生錯誤時刪除
+    private JsonObject part_info = null; // 目前解析中的 part
+    private FileOutputStream part_output = null; // 檔案 part 的輸出
+    private ByteArrayOutputStream part_value = null; // 文字欄位的內容
+
+    private long request_size = 0; // 已讀取的請求內容大小
+    private long part_size = 0; // 目前 part 已讀取的大小
+    private int part_count = 0;
 
     public AsyncReadListener(ServletInputStream servletInputStream, String boundary_string, Handler handler) {
+        this(servletInputStream, boundary_string, null, handler);
+    }
+
+    public AsyncReadListener(ServletInputStream servletInputStream, String boundary_string, UploadLimit uploadLimit, Handler handler) {
         this.inputStream = new WeakReference<>( servletInputStream ).get();
-        if(null != this.inputStream) {
-            this.inputChannel = Channels.newChannel(this.inputStream);
-        }
-        if(null != boundary_string) {
-            this.boundary_string = boundary_string;
-        }
-        if(null != handler) this.handler = handler;
-        {
-            File app_dir = new FileFinder.Builder().build().find("WEB-INF").getParentFile();
-            String app_name = app_dir.getName();
-            File app_temp_dir = new FileFinder.Builder().build().find("WebAppFiles");
-            if(null == app_temp_dir) {
-                LoggerService.logERROR("尚未建立 WebAppFiles 資料夾");
-                System.err.println("尚未建立 WebAppFiles 資料夾");
-            } else {
-                this.temp_file_dir = Paths.get(app_temp_dir + dir_slash + app_name + dir_slash + "temp");
-                if(!this.temp_file_dir.toFile().exists()) {
-                    this.temp_file_dir.toFile().mkdirs();
-                }
-            }
-        }
-        // 設定輸出檔案
+        this.handler = handler;
+        this.uploadLimit = null == uploadLimit ? new UploadLimit.Builder().build() : uploadLimit;
         try {
-            String file_name = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss_SSS")) + "_" + RandomServiceStatic.getInstance().getLowerCaseRandomString(4);
-            this.multi_part_file = Paths.get(temp_file_dir + dir_slash + file_name).toFile();
-            this.multi_part_file.deleteOnExit(); // temp file delete setting
-            this.outputStream = new FileOutputStream(this.multi_part_file);
-            this.outputChannel = outputStream.getChannel();
+            this.parser = new MultipartParser(boundary_string, this);
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
-    @Override
-    public void onDataAvailable() throws IOException {
-        ByteBuffer byteBuffer = ByteBuffer.allocate(1024 * 4);
-        while (inputStream.isReady() && !inputStream.isFinished()) {
-            byteBuffer.clear();
-            int bytesRead = inputChannel.read(byteBuffer);
-            byteBuffer.flip();
-            if (bytesRead > 0) {
-                outputChannel.write(byteBuffer);
-            }
-        }
+    /**
+     * 上傳檔案的暫存檔登記於該請求的 TempFileScope，必須在 setReadListener() 之前設定
+     */
+    public void setTempFileScope(TempFileScope tempFileScope) {
+        this.tempFileScope = tempFileScope;
+    }
+
+    /**
+     * 記錄上傳進度，必須在 setReadListener() 之前設定
+     */
+    public void setUploadProgress(UploadProgress uploadProgress) {
+        this.uploadProgress = uploadProgress;
     }
 
     @Override
-    public void onAllDataRead() throws IOException {
-        JsonArray data_arr = new JsonArray();
-
-        BufferedInputStream inputStream = new BufferedInputStream(new FileInputStream(this.multi_part_file));
-        FileOutputStream up_output; // output file temp
-
-        byte[] boundaryBytes = (boundary_string).getBytes(StandardCharsets.UTF_8);
-        MultipartStream multipartStream = new MultipartStream(inputStream, boundaryBytes, null);
-        boolean nextPart = multipartStream.skipPreamble();
-        StringBuilder sbd = new StringBuilder();
-        while (nextPart) {
-            String header = multipartStream.readHeaders();
-            {
-                header = header.replaceAll("\r", ";");
-                header = header.replaceAll("\n", ";");
-                header = header.replaceAll("\r\n", ";");
-                header = header.replaceAll(":", "=");
-                sbd.append(header);
-            }
-            sbd.append(header);
-            String fieldName = getFieldName(header);
-            if (fieldName == null) {
-                // Skip this part, not a form field
-                multipartStream.discardBodyData();
-            } else {
-                String file_name = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss_SSS")) + "_" + RandomServiceStatic.getInstance().getLowerCaseRandomString(4);
-                Path output_file_path = Paths.get(this.temp_file_dir + this.dir_slash + file_name);
-                File file_upload_temp = output_file_path.toFile();
-                file_upload_temp.deleteOnExit();
-                up_output = new FileOutputStream(file_upload_temp);
-                multipartStream.readBodyData(up_output);
-                up_output.flush();
-                up_output.close();
-                {
-                    ParameterParser parameterParser = new ParameterParser();
-                    parameterParser.setLowerCaseNames(true);
-                    Map<String, String> params = parameterParser.parse(sbd.toString(), new char[] {';', ','});
-                    params.put("file_path", output_file_path.toString());
-                    sbd.delete(0, sbd.length()); // reset string
-                    {
-                        JsonObject obj = new JsonObject();
-                        for(Map.Entry<String, String> entry : params.entrySet()) {
-                            obj.addProperty(entry.getKey(), entry.getValue());
-                        }
-                        data_arr.add(obj);
+    public void onDataAvailable() throws IOException {
+        if(null == parser) throw new IOException("無效的 multipart boundary");
+        if(isClosed) return;
+        byte[] bytes = readBuffer.array();
+        int bytesRead;
+        try {
+            while (inputStream.isReady() && (bytesRead = inputStream.read(bytes)) != -1) {
+                if (bytesRead > 0) {
+                    request_size += bytesRead;
+                    if (null != uploadProgress) uploadProgress.addBytes(bytesRead);
+                    if (uploadLimit.isRequestTooLarge(request_size)) {
+                        throw new UploadLimitException("上傳內容超過大小限制：" + uploadLimit.getMaxRequestSize() + " bytes");
                     }
+                    parser.write(bytes, 0, bytesRead);
                 }
             }
-            nextPart = multipartStream.readBoundary();
+        } catch (UploadLimitException e) {
+            abort(e);
         }
+    }
 
+    @Override
+    public void onAllDataRead() throws IOException {
+        if(isClosed) return;
+        if(null == parser) throw new IOException("無效的 multipart boundary");
+        parser.finish();
         closeStream();
+        finishProgress(UploadProgress.STATUS_DONE);
         if(null != handler) {
             Bundle b = new Bundle();
             b.putString("status", "done");
-            b.putString("data", new Gson().toJson(data_arr));
+            b.putString("data", GsonServiceStatic.getInstance().getDefault().toJson(data_arr));
             Message m = handler.obtainMessage();
             m.setData(b);
             m.sendToTarget();
@@ -169,7 +143,11 @@ public class AsyncReadListener implements ReadListener {
 
     @Override
     public void onError(Throwable throwable) {
+        if(isClosed) return;
         throwable.printStackTrace();
+        closeStream();
+        deletePartFiles();
+        finishProgress(UploadProgress.STATUS_FAIL);
         if(null != handler) {
             Bundle b = new Bundle();
             b.putString("status", "fail");
@@ -179,21 +157,131 @@ public class AsyncReadListener implements ReadListener {
         }
     }
 
-    private String getFieldName(String header) {
-        Pattern pattern = Pattern.compile("name=\"(.+?)\"");
-        Matcher matcher = pattern.matcher(header);
-        if (matcher.find()) {
-            return matcher.group(1);
+    @Override
+    public void onPartBegin(LinkedHashMap<String, String> headers) throws IOException {
+        part_count++;
+        part_size = 0;
+        if(uploadLimit.getMaxPartCount() > 0 && part_count > uploadLimit.getMaxPartCount()) {
+            throw new UploadLimitException("上傳欄位數量超過限制：" + uploadLimit.getMaxPartCount());
+        }
+        part_info = new JsonObject();
+        {
+            ParameterParser parameterParser = new ParameterParser();
+            parameterParser.setLowerCaseNames(true);
+            String disposition = headers.get("content-disposition");
+            if(null != disposition) {
+                Map<String, String> params = parameterParser.parse(disposition, new char[] {';', ','});
+                for(Map.Entry<String, String> entry : params.entrySet()) {
+                    if(null == entry.getValue()) continue; // 例如 form-data
+                    part_info.addProperty(entry.getKey(), entry.getValue());
+                }
+            }
+            if(headers.containsKey("content-type")) {
+                part_info.addProperty("content-type", headers.get("content-type"));
+            }
+        }
+        if(!part_info.has("name")) {
+            // 不是表單欄位的 part 直接略過
+            return;
+        }
+        if(null != uploadProgress) {
+            uploadProgress.beginPart(part_info.has("filename") ? part_info.get("filename").getAsString() : part_info.get("name").getAsString());
+        }
+        if(part_info.has("filename")) {
+            if(!part_info.has("content-type")) part_info.addProperty("content-type", "application/octet-stream");
+            String file_name = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss_SSS")) + "_" + RandomServiceStatic.getInstance().getLowerCaseRandomString(4);
+            File file_upload_temp = TempFileServiceStatic.getInstance().createTempFile(file_name, tempFileScope);
+            part_files.add(file_upload_temp);
+            part_output = new FileOutputStream(file_upload_temp);
+            part_info.addProperty("file_path", file_upload_temp.getPath());
+        } else {
+            part_value = new ByteArrayOutputStream();
+        }
+    }
+
+    @Override
+    public void onPartData(byte[] bytes, int offset, int len) throws IOException {
+        part_size += len;
+        if(null != part_output && uploadLimit.getMaxPartSize() > 0 && part_size > uploadLimit.getMaxPartSize()) {
+            throw new UploadLimitException("上傳檔案超過大小限制：" + uploadLimit.getMaxPartSize() + " bytes");
+        }
+        if(null != part_value && uploadLimit.getMaxFieldSize() > 0 && part_size > uploadLimit.getMaxFieldSize()) {
+            throw new UploadLimitException("上傳欄位超過大小限制：" + uploadLimit.getMaxFieldSize() + " bytes");
+        }
+        if(null != part_output) {
+            part_output.write(bytes, offset, len);
+        } else if(null != part_value) {
+            part_value.write(bytes, offset, len);
+        }
+    }
+
+    @Override
+    public void onPartEnd() throws IOException {
+        if(null == part_info || !part_info.has("name")) {
+            part_info = null;
+            return;
+        }
+        if(null != part_output) {
+            part_output.close();
+            part_output = null;
+        }
+        if(null != part_value) {
+            part_info.addProperty("value", part_value.toString(StandardCharsets.UTF_8));
+            part_value = null;
+        }
+        data_arr.add(part_info);
+        if(null != handler) {
+            Bundle b = new Bundle();
+            b.putString("status", "part");
+            b.putString("data", GsonServiceStatic.getInstance().getDefault().toJson(part_info));
+            Message m = handler.obtainMessage();
+            m.setData(b);
+            m.sendToTarget();
+        }
+        part_info = null;
+    }
+
+    // 超過上傳限制時停止讀取，剩餘的請求內容由容器處理（超過容器 maxSwallowSize 時會直接關閉連線）
+    private void abort(UploadLimitException exception) {
+        LoggerService.logERROR(exception.getMessage());
+        closeStream();
+        deletePartFiles();
+        finishProgress(UploadProgress.STATUS_TOO_LARGE);
+        if(null != handler) {
+            Bundle b = new Bundle();
+            b.putString("status", "too_large");
+            b.putString("msg_zht", exception.getMessage());
+            Message m = handler.obtainMessage();
+            m.setData(b);
+            m.sendToTarget();
+        }
+    }
+
+    private void finishProgress(String status) {
+        if(null == uploadProgress) return;
+        UploadProgressServiceStatic.getInstance().finish(uploadProgress, status);
+    }
+
+    // 不完整的上傳內容不會再被使用
+    private void deletePartFiles() {
+        for(File file : part_files) {
+            try {
+                Files.deleteIfExists(file.toPath());
+            } catch (Exception e) {
+                // e.printStackTrace();
+            }
         }
-        return null;
+        part_files.clear();
     }
 
     private void closeStream() {
+        if(isClosed) return;
+        isClosed = true;
+        ByteBufferPoolStatic.getInstance().release(readBuffer);
         try {
-            inputChannel.close();
+            if(null != part_output) part_output.close();
+            part_output = null;
             inputStream.close();
-            outputChannel.close();
-            outputStream.close();
         } catch (Exception e) {
             // e.printStackTrace();
         }
@@ -1,14 +1,22 @@
 package framework.web.listener;
 
+import framework.bytebuf.ByteBufferPoolStatic;
 import framework.observer.Bundle;
 import framework.observer.Handler;
 import framework.observer.Message;
+import framework.web.context.CancellationToken;
+import framework.web.context.CompressionServiceStatic;
 import jakarta.servlet.ServletOutputStream;
 import jakarta.servlet.WriteListener;
 
 import java.io.*;
 import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
 
 /**
  * <a href="https://medium.com/@clu1022/%E6%B7%BA%E8%AB%87i-o-model-32da09c619e6">...</a>
@@ -23,23 +31,43 @@ import java.nio.charset.StandardCharsets;
  * 並且判斷一個輸出事件的結束點也必須由 onWritePossible 是否已經寫完所有資料來決定。
  * -
  * #230427 採用 ChatGPT 重構並確認效率，應該確保此實作為最簡化才是正確的實作方式，複雜的判斷應實作在應用端
+ * -
+ * 設定 setContentEncoding(gzip / deflate) 時，每次讀取的區段先經由 Deflater 壓縮再輸出，
+ * 不需要先將完整內容壓縮至記憶體；每次 write 前皆會確認 isReady()
  */
 public class AsyncWriteListener implements WriteListener {
 
+    private static final int FILE_BUFFER_SIZE = 64 * 1024;
+    private static final byte[] GZIP_HEADER = new byte[] { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+
     private final ServletOutputStream servletOutputStream;
     private InputStream inputStream;
+    private FileChannel fileChannel = null; // 檔案來源時以 FileChannel 讀取
+    private long fileRemaining = -1; // 檔案來源指定區段時剩餘的輸出長度，-1 表示輸出至檔案結尾
+    private final ByteBuffer buffer; // 由 ByteBufferPool 取得，close() 時歸還
+    private boolean isClosed = false;
     private final Handler handler;
+    private CancellationToken cancellationToken = null;
+    private Runnable cancelTask = null;
+
+    private Deflater deflater = null; // 不壓縮時為 null
+    private CRC32 crc = null; // gzip 時計算 trailer
+    private ByteBuffer deflateBuffer = null; // 壓縮後的輸出緩衝區
+    private boolean isHeaderWritten = false;
+    private boolean isTrailerWritten = false;
 
     // from InputStream
     private AsyncWriteListener(ServletOutputStream servletOutputStream, InputStream inputStream, Handler handler) {
         this.servletOutputStream = servletOutputStream;
         {
             try {
-                this.inputStream = new WeakReference<>( new BufferedInputStream( inputStream )).get();
+                // 已由 buffer 分段讀取，不需要再以 BufferedInputStream 包裝
+                this.inputStream = new WeakReference<>( inputStream ).get();
             } catch (Exception e) {
                 e.printStackTrace();
             }
         }
+        this.buffer = ByteBufferPoolStatic.getInstance().acquire();
         this.handler = handler;
     }
 
@@ -54,30 +82,40 @@ public class AsyncWriteListener implements WriteListener {
                 e.printStackTrace();
             }
         }
+        this.buffer = ByteBufferPoolStatic.getInstance().acquire();
         this.handler = handler;
     }
 
-    // from File
-    private AsyncWriteListener(ServletOutputStream servletOutputStream, File file, Handler handler) {
+    // from File, start 與 end 皆為包含的位置，end 為 -1 時表示輸出至檔案結尾
+    private AsyncWriteListener(ServletOutputStream servletOutputStream, File file, long start, long end, Handler handler) {
         this.servletOutputStream = servletOutputStream;
         {
             try {
-                this.inputStream = new WeakReference<>( new BufferedInputStream(new FileInputStream(file)) ).get();
+                this.fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+                if(start > 0) this.fileChannel.position(start);
+                if(end >= 0) this.fileRemaining = end - Math.max(0, start) + 1;
             } catch (Exception e) {
                 e.printStackTrace();
             }
         }
+        this.buffer = ByteBufferPoolStatic.getInstance().acquire(FILE_BUFFER_SIZE);
         this.handler = handler;
     }
 
     @Override
     public void onWritePossible() throws IOException {
-        byte[] buffer = new byte[4096];
+        if(isClosed) return;
+        // 請求已逾時或發生錯誤時不再繼續輸出，AsyncContext 已由 AsyncActionContext 完成
+        if(null != cancellationToken && cancellationToken.isCancelled()) {
+            close();
+            return;
+        }
+        byte[] bytes = null == deflater ? buffer.array() : deflateBuffer.array();
         int bytesRead;
-        while ( servletOutputStream.isReady() && (bytesRead = inputStream.read(buffer)) != -1 ) {
-            // 在 response 對象可寫入數據時，持續向輸出流寫入數據
-            servletOutputStream.write(buffer, 0, bytesRead);
-            servletOutputStream.flush();
+        // 在 response 對象可寫入數據時，持續向輸出流寫入數據，
+        // 不在每個區段後 flush，由容器自行決定送出時機，僅於輸出完成時 flush
+        while ( servletOutputStream.isReady() && (bytesRead = (null == deflater ? read() : readCompressed())) != -1 ) {
+            servletOutputStream.write(bytes, 0, bytesRead);
         }
         if (servletOutputStream.isReady()) {
             close();
@@ -105,13 +143,99 @@ public class AsyncWriteListener implements WriteListener {
         }
     }
 
+    private int read() throws IOException {
+        if(null != fileChannel) {
+            if(fileRemaining == 0) return -1;
+            buffer.clear();
+            if(fileRemaining > 0 && fileRemaining < buffer.capacity()) buffer.limit((int) fileRemaining);
+            int bytesRead = fileChannel.read(buffer);
+            if(fileRemaining > 0 && bytesRead > 0) fileRemaining -= bytesRead;
+            return bytesRead;
+        }
+        return inputStream.read(buffer.array());
+    }
+
+    // 取得下一段壓縮後的內容（位於 deflateBuffer），全部輸出完畢時回傳 -1
+    private int readCompressed() throws IOException {
+        byte[] out = deflateBuffer.array();
+        while (true) {
+            if(null != crc && !isHeaderWritten) {
+                isHeaderWritten = true;
+                System.arraycopy(GZIP_HEADER, 0, out, 0, GZIP_HEADER.length);
+                return GZIP_HEADER.length;
+            }
+            if(deflater.finished()) {
+                if(null != crc && !isTrailerWritten) {
+                    isTrailerWritten = true;
+                    writeIntLE(out, 0, (int) crc.getValue());
+                    writeIntLE(out, 4, (int) deflater.getBytesRead());
+                    return 8;
+                }
+                return -1;
+            }
+            int len = deflater.deflate(out, 0, out.length);
+            if(len > 0) return len;
+            if(deflater.needsInput()) {
+                int bytesRead = read();
+                if(bytesRead == -1) {
+                    deflater.finish();
+                } else if(bytesRead > 0) {
+                    if(null != crc) crc.update(buffer.array(), 0, bytesRead);
+                    deflater.setInput(buffer.array(), 0, bytesRead);
+                }
+            }
+        }
+    }
+
+    private static void writeIntLE(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) value;
+        bytes[offset + 1] = (byte) (value >> 8);
+        bytes[offset + 2] = (byte) (value >> 16);
+        bytes[offset + 3] = (byte) (value >> 24);
+    }
+
+    // gzip / deflate 壓縮輸出，level 為 Deflater 壓縮等級
+    private void setContentEncoding(String contentEncoding, int level) {
+        if(null == contentEncoding) return;
+        boolean isGzip = "gzip".equals(contentEncoding);
+        if(!isGzip && !"deflate".equals(contentEncoding)) return;
+        // gzip 由此類別自行加上 header 及 trailer，因此採用 nowrap 的原始 deflate 格式
+        this.deflater = new Deflater(level, isGzip);
+        if(isGzip) this.crc = new CRC32();
+        this.deflateBuffer = ByteBufferPoolStatic.getInstance().acquire();
+    }
+
+    // 請求被取消時關閉輸出來源，使輸出中的檔案不會持續被占用
+    private void setCancellationToken(CancellationToken cancellationToken) {
+        if(null == cancellationToken) return;
+        this.cancellationToken = cancellationToken;
+        this.cancelTask = () -> {
+            try {
+                if(null != inputStream) inputStream.close();
+                if(null != fileChannel) fileChannel.close();
+            } catch (Exception e) {
+                // e.printStackTrace();
+            }
+        };
+        cancellationToken.register(cancelTask);
+    }
+
     private void close() {
+        if(isClosed) return;
+        isClosed = true;
+        if(null != cancellationToken) cancellationToken.unregister(cancelTask);
         try {
-            inputStream.close();
+            if(null != inputStream) inputStream.close();
+            if(null != fileChannel) fileChannel.close();
             servletOutputStream.flush();
         } catch (Exception e) {
             // e.printStackTrace();
         }
+        ByteBufferPoolStatic.getInstance().release(buffer);
+        if(null != deflater) {
+            deflater.end(); // 釋放 native 記憶體
+            ByteBufferPoolStatic.getInstance().release(deflateBuffer);
+        }
     }
 
     public static class Builder {
@@ -120,9 +244,13 @@ public class AsyncWriteListener implements WriteListener {
 
         private InputStream inputStream = null;
         private File file = null;
+        private long fileStart = 0;
+        private long fileEnd = -1;
         private CharSequence charSequence = null;
 
         private Handler handler = null;
+        private CancellationToken cancellationToken = null;
+        private String contentEncoding = null;
 
         public AsyncWriteListener.Builder setServletOutputStream(ServletOutputStream servletOutputStream) {
             this.servletOutputStream = new WeakReference<>( servletOutputStream ).get();
@@ -139,6 +267,15 @@ public class AsyncWriteListener implements WriteListener {
             return this;
         }
 
+        /**
+         * 僅輸出檔案中 [start, end] 的區段（皆為包含），用於 HTTP Range 請求
+         */
+        public AsyncWriteListener.Builder setFileRange(long start, long end) {
+            this.fileStart = start;
+            this.fileEnd = end;
+            return this;
+        }
+
         public AsyncWriteListener.Builder setCharSequence(CharSequence charSequence) {
             this.charSequence = charSequence;
             return this;
@@ -149,14 +286,32 @@ public class AsyncWriteListener implements WriteListener {
             return this;
         }
 
+        public AsyncWriteListener.Builder setCancellationToken(CancellationToken cancellationToken) {
+            this.cancellationToken = cancellationToken;
+            return this;
+        }
+
+        /**
+         * 以 gzip 或 deflate 壓縮輸出（需與 Content-Encoding 一致），null 表示不壓縮，
+         * 壓縮等級由 CompressionService 設定
+         */
+        public AsyncWriteListener.Builder setContentEncoding(String contentEncoding) {
+            this.contentEncoding = contentEncoding;
+            return this;
+        }
+
         public AsyncWriteListener build() {
+            AsyncWriteListener listener;
             if(null != inputStream) {
-                return new AsyncWriteListener(servletOutputStream, inputStream, handler);
-            }
-            if(null != file) {
-                return new AsyncWriteListener(servletOutputStream, file, handler);
+                listener = new AsyncWriteListener(servletOutputStream, inputStream, handler);
+            } else if(null != file) {
+                listener = new AsyncWriteListener(servletOutputStream, file, fileStart, fileEnd, handler);
+            } else {
+                listener = new AsyncWriteListener(servletOutputStream, charSequence, handler);
             }
-            return new AsyncWriteListener(servletOutputStream, charSequence, handler);
+            listener.setCancellationToken(cancellationToken);
+            listener.setContentEncoding(contentEncoding, CompressionServiceStatic.getInstance().getLevel());
+            return listener;
         }
 
     }
@@ -0,0 +1,187 @@
+package framework.web.multipart;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+
+/**
+ * 增量式 multipart/form-data 解析器，每收到一段請求內容就以 write() 推入，
+ * 不需要先將整個請求內容暫存至檔案，各個 part 的內容會直接交由 Callback 寫入目的地
+ * https://datatracker.ietf.org/doc/html/rfc7578
+ * https://datatracker.ietf.org/doc/html/rfc2046#section-5.1.1
+ * -
+ * 邊界（delimiter）為 CRLF + "--" + boundary，以 Boyer-Moore-Horspool 搜尋，
+ * 尚無法確定是否屬於邊界的尾端內容（最多 delimiter.length - 1 bytes）會保留至下一次 write() 判斷
+ */
+public class MultipartParser {
+
+    private static final int STATE_PREAMBLE = 0;
+    private static final int STATE_DELIMITER = 1; // 邊界之後，判斷是下一個 part 或結束
+    private static final int STATE_HEADERS = 2;
+    private static final int STATE_BODY = 3;
+    private static final int STATE_EPILOGUE = 4;
+
+    private static final int MAX_HEADER_SIZE = 16 * 1024;
+    private static final byte[] HEADER_END = { '\r', '\n', '\r', '\n' };
+
+    private final byte[] delimiter;
+    private final int[] skipTable = new int[256];
+    private final Callback callback;
+
+    private int state = STATE_PREAMBLE;
+    private byte[] buffer;
+    private int length = 0;
+
+    public MultipartParser(String boundary, Callback callback) throws IOException {
+        if(null == boundary || boundary.isEmpty()) throw new IOException("multipart boundary 不可為空值");
+        this.delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+        this.callback = callback;
+        Arrays.fill(skipTable, delimiter.length);
+        for(int i = 0, len = delimiter.length - 1; i < len; i++) {
+            skipTable[delimiter[i] & 0xFF] = len - i;
+        }
+        this.buffer = new byte[Math.max(8 * 1024, delimiter.length * 2)];
+        // 第一個邊界前不具有 CRLF，預先放入使其與後續的邊界有相同的格式
+        this.buffer[0] = '\r';
+        this.buffer[1] = '\n';
+        this.length = 2;
+    }
+
+    /**
+     * 推入一段請求內容
+     */
+    public void write(byte[] bytes, int offset, int len) throws IOException {
+        if(len <= 0 || state == STATE_EPILOGUE) return;
+        if(length + len > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + len));
+        }
+        System.arraycopy(bytes, offset, buffer, length, len);
+        length += len;
+        int consumed = process();
+        // 保留尚未處理的內容
+        if(consumed > 0) {
+            System.arraycopy(buffer, consumed, buffer, 0, length - consumed);
+            length -= consumed;
+        }
+    }
+
+    /**
+     * 請求內容已全部推入，未遇到結束邊界時表示請求內容不完整
+     */
+    public void finish() throws IOException {
+        if(state != STATE_EPILOGUE) throw new IOException("multipart 請求內容不完整");
+    }
+
+    public boolean isFinished() {
+        return state == STATE_EPILOGUE;
+    }
+
+    // 回傳已處理的長度
+    private int process() throws IOException {
+        int pos = 0;
+        while(true) {
+            switch (state) {
+                case STATE_PREAMBLE: {
+                    int index = indexOf(delimiter, pos);
+                    if(index < 0) return Math.max(pos, length - (delimiter.length - 1));
+                    pos = index + delimiter.length;
+                    state = STATE_DELIMITER;
+                    break;
+                }
+                case STATE_DELIMITER: {
+                    if(length - pos < 2) return pos;
+                    if(buffer[pos] == '-' && buffer[pos + 1] == '-') {
+                        state = STATE_EPILOGUE;
+                        return length;
+                    }
+                    if(buffer[pos] == '\r' && buffer[pos + 1] == '\n') {
+                        pos += 2;
+                        state = STATE_HEADERS;
+                        break;
+                    }
+                    throw new IOException("multipart 邊界格式錯誤");
+                }
+                case STATE_HEADERS: {
+                    int index;
+                    int next;
+                    if(length - pos >= 2 && buffer[pos] == '\r' && buffer[pos + 1] == '\n') {
+                        // 不具有任何 header 的 part
+                        index = pos;
+                        next = pos + 2;
+                    } else {
+                        index = indexOf(HEADER_END, pos);
+                        if(index < 0) {
+                            if(length - pos > MAX_HEADER_SIZE) throw new IOException("multipart header 超過長度限制");
+                            return pos;
+                        }
+                        next = index + HEADER_END.length;
+                    }
+                    callback.onPartBegin(parseHeaders(pos, index));
+                    pos = next;
+                    state = STATE_BODY;
+                    break;
+                }
+                case STATE_BODY: {
+                    int index = indexOf(delimiter, pos);
+                    if(index < 0) {
+                        int safe = length - (delimiter.length - 1);
+                        if(safe > pos) {
+                            callback.onPartData(buffer, pos, safe - pos);
+                            pos = safe;
+                        }
+                        return pos;
+                    }
+                    if(index > pos) callback.onPartData(buffer, pos, index - pos);
+                    callback.onPartEnd();
+                    pos = index + delimiter.length;
+                    state = STATE_DELIMITER;
+                    break;
+                }
+                default:
+                    return length;
+            }
+        }
+    }
+
+    // header 名稱轉為小寫，例如 content-disposition, content-type
+    private LinkedHashMap<String, String> parseHeaders(int start, int end) {
+        LinkedHashMap<String, String> headers = new LinkedHashMap<>();
+        if(end <= start) return headers;
+        String block = new String(buffer, start, end - start, StandardCharsets.UTF_8);
+        for(String line : block.split("\r\n")) {
+            int index = line.indexOf(':');
+            if(index <= 0) continue;
+            headers.put(line.substring(0, index).trim().toLowerCase(Locale.ENGLISH), line.substring(index + 1).trim());
+        }
+        return headers;
+    }
+
+    // Boyer-Moore-Horspool
+    private int indexOf(byte[] pattern, int from) {
+        int last = pattern.length - 1;
+        int i = from;
+        while(i + last < length) {
+            int j = last;
+            while(j >= 0 && buffer[i + j] == pattern[j]) j--;
+            if(j < 0) return i;
+            i += (pattern == delimiter) ? skipTable[buffer[i + last] & 0xFF] : 1;
+        }
+        return -1;
+    }
+
+    /**
+     * 解析過程的事件，onPartData 中的 bytes 僅於該次呼叫期間有效
+     */
+    public interface Callback {
+
+        void onPartBegin(LinkedHashMap<String, String> headers) throws IOException;
+
+        void onPartData(byte[] bytes, int offset, int len) throws IOException;
+
+        void onPartEnd() throws IOException;
+
+    }
+
+}
@@ -0,0 +1,99 @@
+package framework.web.multipart;
+
+/**
+ * 上傳請求的大小限制，設置為 0 表示無限制
+ * -
+ * maxRequestSize -> 整個請求內容的大小（bytes），Content-Length 超過時不會開始讀取
+ * maxPartSize -> 單一上傳檔案的大小（bytes）
+ * maxFieldSize -> 單一文字欄位的大小（bytes），文字欄位保留於記憶體中，應設定較小的值
+ * maxPartCount -> part 的數量（包含檔案及文字欄位）
+ * -
+ * 可由 WebAppServicePool.setUploadLimit() 設定全域限制，或由 RequestRoute.Builder.setUploadLimit() 設定個別路由的限制
+ */
+public class UploadLimit {
+
+    private final long maxRequestSize;
+    private final long maxPartSize;
+    private final long maxFieldSize;
+    private final int maxPartCount;
+
+    private UploadLimit(long maxRequestSize, long maxPartSize, long maxFieldSize, int maxPartCount) {
+        this.maxRequestSize = maxRequestSize;
+        this.maxPartSize = maxPartSize;
+        this.maxFieldSize = maxFieldSize;
+        this.maxPartCount = maxPartCount;
+    }
+
+    public long getMaxRequestSize() {
+        return this.maxRequestSize;
+    }
+
+    public long getMaxPartSize() {
+        return this.maxPartSize;
+    }
+
+    public long getMaxFieldSize() {
+        return this.maxFieldSize;
+    }
+
+    public int getMaxPartCount() {
+        return this.maxPartCount;
+    }
+
+    /**
+     * 請求內容大小是否超過限制
+     */
+    public boolean isRequestTooLarge(long requestSize) {
+        return maxRequestSize > 0 && requestSize > maxRequestSize;
+    }
+
+    public static class Builder {
+
+        private long maxRequestSize = 0;
+        private long maxPartSize = 0;
+        private long maxFieldSize = 0;
+        private int maxPartCount = 0;
+
+        public UploadLimit.Builder setMaxRequestSize(long maxRequestSize) {
+            if(maxRequestSize < 0) {
+                System.err.println("maxRequestSize 必須是一個不小於 0 的整數");
+                return this;
+            }
+            this.maxRequestSize = maxRequestSize;
+            return this;
+        }
+
+        public UploadLimit.Builder setMaxPartSize(long maxPartSize) {
+            if(maxPartSize < 0) {
+                System.err.println("maxPartSize 必須是一個不小於 0 的整數");
+                return this;
+            }
+            this.maxPartSize = maxPartSize;
+            return this;
+        }
+
+        public UploadLimit.Builder setMaxFieldSize(long maxFieldSize) {
+            if(maxFieldSize < 0) {
+                System.err.println("maxFieldSize 必須是一個不小於 0 的整數");
+                return this;
+            }
+            this.maxFieldSize = maxFieldSize;
+            return this;
+        }
+
+        public UploadLimit.Builder setMaxPartCount(int maxPartCount) {
+            if(maxPartCount < 0) {
+                System.err.println("maxPartCount 必須是一個不小於 0 的整數");
+                return this;
+            }
+            this.maxPartCount = maxPartCount;
+            return this;
+        }
+
+        public UploadLimit build() {
+            return new UploadLimit(maxRequestSize, maxPartSize, maxFieldSize, maxPartCount);
+        }
+
+    }
+
+}
@@ -0,0 +1,14 @@
+package framework.web.multipart;
+
+import java.io.IOException;
+
+/**
+ * 上傳內容超過 UploadLimit 限制，應以 413 Payload Too Large 回應
+ */
+public class UploadLimitException extends IOException {
+
+    public UploadLimitException(String message) {
+        super(message);
+    }
+
+}
@@ -0,0 +1,107 @@
+package framework.web.multipart;
+
+import com.google.gson.JsonObject;
+
+/**
+ * 單一上傳請求的進度，由 AsyncReadListener 更新，其他執行緒（Handler、WebSocket）只會讀取
+ * -
+ * 同一個請求的 ReadListener 事件不會同時被執行，所以只有一個寫入者，
+ * 以 volatile 欄位即可確保讀取端看到最新的值，不需要任何鎖
+ */
+public class UploadProgress {
+
+    public static final String STATUS_UPLOADING = "uploading";
+    public static final String STATUS_DONE = "done";
+    public static final String STATUS_FAIL = "fail";
+    public static final String STATUS_TOO_LARGE = "too_large";
+
+    private final String uploadId;
+    private final long contentLength; // 未知時為 -1
+    private final long startTime = System.currentTimeMillis();
+
+    private volatile long bytesReceived = 0;
+    private volatile String currentPart = null;
+    private volatile int partCount = 0;
+    private volatile long updateTime = startTime;
+    private volatile String status = STATUS_UPLOADING;
+
+    public UploadProgress(String uploadId, long contentLength) {
+        this.uploadId = uploadId;
+        this.contentLength = contentLength;
+    }
+
+    public String getUploadId() {
+        return this.uploadId;
+    }
+
+    public long getContentLength() {
+        return this.contentLength;
+    }
+
+    public long getBytesReceived() {
+        return this.bytesReceived;
+    }
+
+    public String getCurrentPart() {
+        return this.currentPart;
+    }
+
+    public int getPartCount() {
+        return this.partCount;
+    }
+
+    public String getStatus() {
+        return this.status;
+    }
+
+    public boolean isFinished() {
+        return !STATUS_UPLOADING.equals(this.status);
+    }
+
+    /**
+     * 平均傳輸速率（bytes/sec）
+     */
+    public long getThroughput() {
+        long elapsed = Math.max(1, updateTime - startTime);
+        return bytesReceived * 1000 / elapsed;
+    }
+
+    /**
+     * 完成百分比（0 ~ 100），無法得知內容長度時回傳 -1
+     */
+    public int getPercent() {
+        if(contentLength <= 0) return -1;
+        return (int) Math.min(100, bytesReceived * 100 / contentLength);
+    }
+
+    // 以下僅由 AsyncReadListener 呼叫，結束時應經由 UploadProgressService.finish()
+
+    public void addBytes(long bytes) {
+        this.bytesReceived += bytes;
+        this.updateTime = System.currentTimeMillis();
+    }
+
+    public void beginPart(String partName) {
+        this.currentPart = partName;
+        this.partCount++;
+    }
+
+    void finish(String status) {
+        this.updateTime = System.currentTimeMillis();
+        this.status = status;
+    }
+
+    public JsonObject toJsonObject() {
+        JsonObject obj = new JsonObject();
+        obj.addProperty("upload_id", uploadId);
+        obj.addProperty("status", status);
+        obj.addProperty("bytes_received", bytesReceived);
+        obj.addProperty("content_length", contentLength);
+        obj.addProperty("percent", getPercent());
+        obj.addProperty("current_part", currentPart);
+        obj.addProperty("part_count", partCount);
+        obj.addProperty("throughput", getThroughput());
+        return obj;
+    }
+
+}
@@ -0,0 +1,59 @@
+package framework.web.multipart;
+
+import framework.thread.ThreadPoolStatic;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 進行中的上傳進度，以 upload_id（由前端於上傳網址的 query string 帶入）取得對應的 UploadProgress，
+ * 讓 Handler 輪詢或由 WebSocket 訂閱，不需要經由 HttpSession 傳遞
+ * -
+ * 上傳結束後保留 retainTime（ms）讓前端取得最終狀態，之後自動移除
+ */
+public class UploadProgressService {
+
+    private final ConcurrentHashMap<String, UploadProgress> map = new ConcurrentHashMap<>();
+    private volatile long retainTime = 60 * 1000;
+
+    /**
+     * 建立並登記上傳進度，相同 upload_id 的舊進度會被取代
+     */
+    public UploadProgress register(String uploadId, long contentLength) {
+        UploadProgress progress = new UploadProgress(uploadId, contentLength);
+        map.put(uploadId, progress);
+        return progress;
+    }
+
+    public UploadProgress get(String uploadId) {
+        if(null == uploadId) return null;
+        return map.get(uploadId);
+    }
+
+    /**
+     * 上傳結束，於 retainTime 之後移除（若期間已被新的上傳取代則不移除）
+     */
+    public void finish(UploadProgress progress, String status) {
+        progress.finish(status);
+        if(retainTime == 0) {
+            map.remove(progress.getUploadId(), progress);
+            return;
+        }
+        ThreadPoolStatic.schedule(() -> map.remove(progress.getUploadId(), progress), retainTime);
+    }
+
+    /**
+     * 設定上傳結束後保留進度的時間（ms），0 表示立即移除
+     */
+    public void setRetainTime(long retainTime) {
+        if(retainTime < 0) {
+            System.err.println("retainTime 必須是一個不小於 0 的整數");
+            return;
+        }
+        this.retainTime = retainTime;
+    }
+
+    public int getSize() {
+        return map.size();
+    }
+
+}
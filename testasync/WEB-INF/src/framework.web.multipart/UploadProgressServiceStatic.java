@@ -0,0 +1,19 @@
+package framework.web.multipart;
+
+public class UploadProgressServiceStatic {
+
+    private static final UploadProgressService instance;
+
+    private UploadProgressServiceStatic() {}
+
+    static {
+        instance = new UploadProgressServiceStatic.Instance();
+    }
+
+    public static UploadProgressService getInstance() {
+        return instance;
+    }
+
+    private static class Instance extends UploadProgressService {}
+
+}
@@ -0,0 +1,100 @@
+package framework.web.resource;
+
+import framework.web.context.CompressionService;
+
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+/**
+ * 已載入記憶體的靜態資源，內容以唯讀的 direct ByteBuffer 保存，
+ * 可壓縮的類型另外保存 gzip 及 deflate 版本（僅在壓縮後較小時保存）
+ * -
+ * 各版本的 ETag 不同，避免快取代理將不同編碼的內容視為同一份
+ */
+public class StaticResource {
+
+    private final String path;
+    private final String contentType;
+    private final long lastModified;
+    private final String eTag;
+    private final ByteBuffer identity;
+    private final ByteBuffer gzip; // 沒有壓縮版本時為 null
+    private final ByteBuffer deflate; // 沒有壓縮版本時為 null
+
+    StaticResource(String path, String contentType, long lastModified, String eTag, ByteBuffer identity, ByteBuffer gzip, ByteBuffer deflate) {
+        this.path = path;
+        this.contentType = contentType;
+        this.lastModified = lastModified;
+        this.eTag = eTag;
+        this.identity = identity;
+        this.gzip = gzip;
+        this.deflate = deflate;
+    }
+
+    public String getPath() {
+        return this.path;
+    }
+
+    public String getContentType() {
+        return this.contentType;
+    }
+
+    public long getLastModified() {
+        return this.lastModified;
+    }
+
+    /**
+     * 原始檔案的長度
+     */
+    public long getLength() {
+        return this.identity.capacity();
+    }
+
+    /**
+     * 依 Content-Encoding 取得對應的 ETag：identity, gzip, deflate
+     */
+    public String getETag(String encoding) {
+        if("gzip".equals(encoding)) return withSuffix("-gz");
+        if("deflate".equals(encoding)) return withSuffix("-df");
+        return this.eTag;
+    }
+
+    /**
+     * 依 Content-Encoding 取得內容，每次呼叫皆回傳獨立 position 的唯讀 ByteBuffer，
+     * 不具有該編碼版本時回傳 null
+     */
+    public ByteBuffer getContent(String encoding) {
+        ByteBuffer buffer = this.identity;
+        if("gzip".equals(encoding)) buffer = this.gzip;
+        if("deflate".equals(encoding)) buffer = this.deflate;
+        if(null == buffer) return null;
+        return buffer.duplicate();
+    }
+
+    /**
+     * 依 Accept-Encoding 選擇最適合的編碼，優先順序為 gzip > deflate > identity
+     */
+    public String selectEncoding(String acceptEncoding) {
+        if(null == acceptEncoding) return "identity";
+        String _accept = acceptEncoding.toLowerCase(Locale.ENGLISH);
+        if(null != gzip && CompressionService.acceptsEncoding(_accept, "gzip")) return "gzip";
+        if(null != deflate && CompressionService.acceptsEncoding(_accept, "deflate")) return "deflate";
+        return "identity";
+    }
+
+    /**
+     * 占用的記憶體大小（所有版本合計）
+     */
+    long getMemorySize() {
+        long size = identity.capacity();
+        if(null != gzip) size += gzip.capacity();
+        if(null != deflate) size += deflate.capacity();
+        return size;
+    }
+
+    private String withSuffix(String suffix) {
+        // "abc" -> "abc-gz"，W/"abc" -> W/"abc-gz"
+        return this.eTag.substring(0, this.eTag.length() - 1) + suffix + "\"";
+    }
+
+}
@@ -0,0 +1,314 @@
+package framework.web.resource;
+
+import framework.file.MimeTypeServiceStatic;
+import framework.web.context.CompressionServiceStatic;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 靜態資源（js, css 等）的記憶體快取，依總容量以 LRU 方式淘汰，
+ * 以 watch() 監看網站目錄後，檔案變動時由 WatchService 使快取失效，命中時不需要任何檔案系統呼叫；
+ * 未啟用監看（或監看失敗）時則於每次命中時比對檔案大小及修改時間
+ * -
+ * 超過 maxEntrySize 的檔案不會被快取，應以 outputFileToResponse 串流輸出
+ */
+public class StaticResourceCache {
+
+    private long maxCacheSize = 32 * 1024 * 1024; // 快取總容量（bytes）
+    private long maxEntrySize = 1024 * 1024; // 單一檔案上限（bytes）
+    private long cacheSize = 0;
+    private long generation = 0; // 每次 invalidate() 或 clear() 遞增，載入期間有變動時不放入快取
+    private final LinkedHashMap<String, StaticResource> resources = new LinkedHashMap<>(64, 0.75f, true);
+
+    private WatchService watchService = null;
+    private final HashMap<WatchKey, Path> watchKeys = new HashMap<>();
+    private volatile boolean isWatching = false;
+
+    private final AtomicLong hitCount = new AtomicLong(0);
+    private final AtomicLong missCount = new AtomicLong(0);
+
+    /**
+     * 設定快取總容量（bytes），包含壓縮版本所占用的容量
+     */
+    public void setMaxCacheSize(long maxCacheSize) {
+        if(maxCacheSize <= 0) {
+            System.err.println("快取總容量必須是一個大於 0 的整數");
+            return;
+        }
+        synchronized (resources) {
+            this.maxCacheSize = maxCacheSize;
+            evict();
+        }
+    }
+
+    public long getMaxCacheSize() {
+        return this.maxCacheSize;
+    }
+
+    /**
+     * 設定可被快取的單一檔案大小上限（bytes）
+     */
+    public void setMaxEntrySize(long maxEntrySize) {
+        if(maxEntrySize <= 0) {
+            System.err.println("單一檔案上限必須是一個大於 0 的整數");
+            return;
+        }
+        this.maxEntrySize = maxEntrySize;
+    }
+
+    public long getMaxEntrySize() {
+        return this.maxEntrySize;
+    }
+
+    /**
+     * 取得快取的靜態資源，尚未快取時由檔案載入；
+     * 檔案不存在、不是一般檔案或超過 maxEntrySize 時回傳 null
+     * -
+     * mimeType 為 null 時自動判斷檔案類型
+     */
+    public StaticResource get(File file, String mimeType) {
+        if(null == file) return null;
+        String key = file.getPath();
+        StaticResource resource;
+        synchronized (resources) {
+            resource = resources.get(key);
+        }
+        if(null != resource) {
+            if(isWatching || (file.lastModified() == resource.getLastModified() && file.length() == resource.getLength())) {
+                hitCount.incrementAndGet();
+                return resource;
+            }
+            invalidate(key);
+        }
+        missCount.incrementAndGet();
+        if(!file.isFile() || file.length() > maxEntrySize) return null;
+        long loadGeneration;
+        synchronized (resources) {
+            loadGeneration = this.generation;
+        }
+        resource = load(file, mimeType);
+        if(null == resource) return null;
+        synchronized (resources) {
+            // 載入期間檔案可能已變動（監看模式下命中時不再比對修改時間），本次內容只輸出不快取
+            if(loadGeneration != this.generation) return resource;
+            StaticResource previous = resources.put(key, resource);
+            if(null != previous) cacheSize -= previous.getMemorySize();
+            cacheSize += resource.getMemorySize();
+            evict();
+        }
+        return resource;
+    }
+
+    /**
+     * 使該路徑（或該資料夾下所有檔案）的快取失效
+     */
+    public void invalidate(String path) {
+        if(null == path) return;
+        String dirPrefix = path.endsWith(File.separator) ? path : path + File.separator;
+        synchronized (resources) {
+            generation++;
+            Iterator<Map.Entry<String, StaticResource>> iterator = resources.entrySet().iterator();
+            while(iterator.hasNext()) {
+                Map.Entry<String, StaticResource> entry = iterator.next();
+                if(entry.getKey().equals(path) || entry.getKey().startsWith(dirPrefix)) {
+                    cacheSize -= entry.getValue().getMemorySize();
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    public void clear() {
+        synchronized (resources) {
+            generation++;
+            resources.clear();
+            cacheSize = 0;
+        }
+    }
+
+    public long getCacheSize() {
+        return this.cacheSize;
+    }
+
+    public int getEntryCount() {
+        synchronized (resources) {
+            return resources.size();
+        }
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * 以 WatchService 監看該資料夾（包含子資料夾，略過 WEB-INF），檔案變動時使快取失效
+     */
+    public void watch(File dir) {
+        if(null == dir || !dir.isDirectory()) return;
+        synchronized (watchKeys) {
+            if(null != watchService) return;
+            try {
+                watchService = FileSystems.getDefault().newWatchService();
+                registerAll(dir.toPath());
+            } catch (Exception e) {
+                e.printStackTrace();
+                closeWatchService();
+                return;
+            }
+        }
+        isWatching = true;
+        Thread thread = new Thread(this::processWatchEvents, "StaticResourceCache-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 停止監看並清除快取
+     */
+    public void shutdown() {
+        synchronized (watchKeys) {
+            closeWatchService();
+        }
+        clear();
+    }
+
+    private void closeWatchService() {
+        isWatching = false;
+        if(null != watchService) {
+            try {
+                watchService.close();
+            } catch (Exception e) {
+                // e.printStackTrace();
+            }
+            watchService = null;
+        }
+        watchKeys.clear();
+    }
+
+    private void registerAll(Path start) throws IOException {
+        Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                // WEB-INF 之下的檔案不會作為靜態資源輸出
+                if(null != dir.getFileName() && "WEB-INF".equalsIgnoreCase(dir.getFileName().toString())) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                WatchKey key = dir.register(watchService,
+                        StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_DELETE,
+                        StandardWatchEventKinds.ENTRY_MODIFY);
+                watchKeys.put(key, dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void processWatchEvents() {
+        while(isWatching) {
+            WatchService service = watchService;
+            if(null == service) return;
+            WatchKey key;
+            try {
+                key = service.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            Path dir;
+            synchronized (watchKeys) {
+                dir = watchKeys.get(key);
+            }
+            for(WatchEvent<?> event : key.pollEvents()) {
+                if(event.kind() == StandardWatchEventKinds.OVERFLOW || null == dir) {
+                    // 遺失事件時無法得知變動的檔案，全部重新載入
+                    clear();
+                    continue;
+                }
+                Path child = dir.resolve((Path) event.context());
+                invalidate(child.toString());
+                if(event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(child)) {
+                    synchronized (watchKeys) {
+                        try {
+                            if(null != watchService) registerAll(child);
+                        } catch (Exception e) {
+                            e.printStackTrace();
+                        }
+                    }
+                }
+            }
+            if(!key.reset()) {
+                synchronized (watchKeys) {
+                    watchKeys.remove(key);
+                }
+            }
+        }
+    }
+
+    // 必須於 synchronized (resources) 中呼叫
+    private void evict() {
+        Iterator<Map.Entry<String, StaticResource>> iterator = resources.entrySet().iterator();
+        while(cacheSize > maxCacheSize && iterator.hasNext()) {
+            Map.Entry<String, StaticResource> entry = iterator.next();
+            cacheSize -= entry.getValue().getMemorySize();
+            iterator.remove();
+        }
+    }
+
+    private StaticResource load(File file, String mimeType) {
+        try {
+            long lastModified = file.lastModified();
+            byte[] bytes = Files.readAllBytes(file.toPath());
+            String contentType = mimeType;
+            if(null == contentType || contentType.isEmpty()) contentType = MimeTypeServiceStatic.getInstance().detect(file);
+            if(null == contentType || contentType.isEmpty()) contentType = "application/octet-stream";
+            String eTag = "\"" + Long.toHexString(bytes.length) + "-" + Long.toHexString(lastModified) + "\"";
+            ByteBuffer gzip = null;
+            ByteBuffer deflate = null;
+            if(CompressionServiceStatic.getInstance().isCompressible(contentType)) {
+                gzip = toDirectBuffer(compress(bytes, true), bytes.length);
+                deflate = toDirectBuffer(compress(bytes, false), bytes.length);
+            }
+            return new StaticResource(file.getPath(), contentType, lastModified, eTag, toDirectBuffer(bytes, -1), gzip, deflate);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    private static byte[] compress(byte[] bytes, boolean isGzip) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(bytes.length / 2 + 64);
+        if(isGzip) {
+            try (GZIPOutputStream out = new GZIPOutputStream(bos)) {
+                out.write(bytes);
+            }
+        } else {
+            try (DeflaterOutputStream out = new DeflaterOutputStream(bos, new Deflater(Deflater.BEST_COMPRESSION))) {
+                out.write(bytes);
+            }
+        }
+        return bos.toByteArray();
+    }
+
+    // 壓縮後沒有比原始內容小時（limit）不保留該版本
+    private static ByteBuffer toDirectBuffer(byte[] bytes, int limit) {
+        if(limit >= 0 && bytes.length >= limit) return null;
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes);
+        buffer.flip();
+        return buffer.asReadOnlyBuffer();
+    }
+
+}
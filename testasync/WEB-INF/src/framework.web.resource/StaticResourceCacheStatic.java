@@ -0,0 +1,19 @@
+package framework.web.resource;
+
+public class StaticResourceCacheStatic {
+
+    private static final StaticResourceCache instance;
+
+    private StaticResourceCacheStatic() {}
+
+    static {
+        instance = new StaticResourceCacheStatic.Instance();
+    }
+
+    public static StaticResourceCache getInstance() {
+        return instance;
+    }
+
+    private static class Instance extends StaticResourceCache {}
+
+}
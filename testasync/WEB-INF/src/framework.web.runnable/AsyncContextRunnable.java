@@ -1,16 +1,24 @@
 package framework.web.runnable;
 
-import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
+import framework.file.MimeTypeServiceStatic;
+import framework.file.TempFileServiceStatic;
 import framework.logs.LoggerService;
 import framework.observer.Handler;
 import framework.observer.Message;
+import framework.text.GsonServiceStatic;
+import framework.thread.ThreadPoolStatic;
 import framework.web.context.AsyncActionContext;
+import framework.web.context.RequestBody;
 import framework.web.executor.WebAppServiceExecutor;
+import framework.web.executor.WebAppServicePoolStatic;
+import framework.web.listener.AsyncBodyReadListener;
 import framework.web.listener.AsyncReadListener;
 import framework.web.multipart.FileItem;
 import framework.web.multipart.FileItemList;
+import framework.web.multipart.UploadLimit;
+import framework.web.multipart.UploadProgressServiceStatic;
 import framework.web.session.context.UserContext;
 import framework.web.session.pattern.UserMap;
 import framework.web.session.service.SessionServiceStatic;
@@ -21,10 +29,8 @@ import jakarta.servlet.ServletInputStream;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import jakarta.servlet.http.HttpSession;
-import org.apache.tika.Tika;
 import org.apache.tomcat.util.http.fileupload.ParameterParser;
 
-import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.lang.ref.WeakReference;
@@ -46,6 +52,7 @@ public class AsyncContextRunnable implements Runnable {
     // private ServletConfig servletConfig;
     private final AsyncContext asyncContext;
     private final AsyncActionContext requestContext;
+    private final long createTime = System.currentTimeMillis(); // 用於計算於佇列中等待的時間
 
     /**
      * 每個非同步請求實例派發給個別的 AsyncContextRunnable 隔離執行
@@ -69,9 +76,31 @@ public class AsyncContextRunnable implements Runnable {
 
     @Override
     public void run() {
+        // 於佇列中等待過久的請求，前端通常已經放棄等待，直接回應 503 不再進行處理
+        long maxQueueWait = ThreadPoolStatic.getMaxQueueWait();
+        if(maxQueueWait > 0 && System.currentTimeMillis() - createTime > maxQueueWait) {
+            ThreadPoolStatic.markRejected();
+            rejectRequest();
+            return;
+        }
         processRequest();
     }
 
+    /**
+     * 伺服器滿載時回應 503 Service Unavailable 並結束該請求
+     */
+    public void rejectRequest() {
+        requestContext.responseServiceUnavailable(ThreadPoolStatic.getRetryAfter(), new Handler(){
+            @Override
+            public void handleMessage(Message m) {
+                super.handleMessage(m);
+                if(!requestContext.isComplete()) {
+                    requestContext.complete();
+                }
+            }
+        });
+    }
+
     // process request by content type
     private void processRequest() {
         String content_type = null;
@@ -85,6 +114,20 @@ public class AsyncContextRunnable implements Runnable {
             return;
         }
         String _content_type = content_type.toLowerCase(Locale.ENGLISH);
+        // 已宣告的請求內容大小超過限制時不讀取內容，直接回應 413
+        {
+            UploadLimit uploadLimit = WebAppServicePoolStatic.getInstance().getUploadLimit(requestContext);
+            if(uploadLimit.isRequestTooLarge(asyncContext.getRequest().getContentLengthLong())) {
+                response413(new Handler(){
+                    @Override
+                    public void handleMessage(Message m) {
+                        super.handleMessage(m);
+                        requestContext.complete();
+                    }
+                });
+                return;
+            }
+        }
         // structured http request
         if(_content_type.contains("application/x-www-form-urlencoded")) {
             LinkedHashMap<String, String> params = parse_url_encoded_body();
@@ -102,32 +145,27 @@ public class AsyncContextRunnable implements Runnable {
         }
         // for GraphQL, JSON
         if(_content_type.contains("application/json")) {
-            LinkedHashMap<String, String> params = parse_params();
-            webAppStartup(params, null);
+            parse_text_body();
             return;
         }
         // for XML
         if(_content_type.contains("application/xml")) {
-            LinkedHashMap<String, String> params = parse_params();
-            webAppStartup(params, null);
+            parse_text_body();
             return;
         }
         // for YAML
         if(_content_type.contains("text/yaml")) {
-            LinkedHashMap<String, String> params = parse_params();
-            webAppStartup(params, null);
+            parse_text_body();
             return;
         }
         // for EDN
         if(_content_type.contains("application/edn")) {
-            LinkedHashMap<String, String> params = parse_params();
-            webAppStartup(params, null);
+            parse_text_body();
             return;
         }
         // for text/plain
         if(_content_type.contains("text/plain")) {
-            LinkedHashMap<String, String> params = parse_params();
-            webAppStartup(params, null);
+            parse_text_body();
             return;
         }
         // when unstructured http request return 'error 400 bad request'
@@ -176,8 +214,9 @@ public class AsyncContextRunnable implements Runnable {
     }
 
     /**
-     * 採用檔案處理方式解析 multipart/form-data 資料內容
-     * 因為由 Session 處理上傳進度值會影響伺服器效率，僅建議由前端處理上傳進度監聽即可
+     * 以 AsyncReadListener 增量解析 multipart/form-data 資料內容，上傳檔案直接寫入暫存檔
+     * 因為由 Session 處理上傳進度值會影響伺服器效率，上傳網址帶有 upload_id 參數時，
+     * 改由 UploadProgressService 記錄進度，可由 Handler 輪詢或經由 WebSocket（cmd = upload_progress）訂閱
      * 前端 AJAX 操作推薦採用 <a href="https://github.com/axios/axios">axios</a>
      */
     private void parse_multipart_form() {
@@ -191,14 +230,15 @@ public class AsyncContextRunnable implements Runnable {
             Map<String, String> req_content_type = parameterParser.parse(requestContext.getHttpRequest().getContentType(), new char[] {';', ','});
             String boundary_string = req_content_type.get("boundary");
 
+            UploadLimit uploadLimit = WebAppServicePoolStatic.getInstance().getUploadLimit(requestContext);
             ServletInputStream servletInputStream = requestContext.getHttpRequest().getInputStream();
-            servletInputStream.setReadListener(new AsyncReadListener(servletInputStream, boundary_string, new Handler(){
+            AsyncReadListener asyncReadListener = new AsyncReadListener(servletInputStream, boundary_string, uploadLimit, new Handler(){
                 @Override
                 public void handleMessage(Message m) {
                     super.handleMessage(m);
                     String status = m.getData().getString("status");
                     if("done".equalsIgnoreCase(status)) {
-                        JsonArray data_arr = new Gson().fromJson(m.getData().getString("data"), JsonArray.class);
+                        JsonArray data_arr = GsonServiceStatic.getInstance().getDefault().fromJson(m.getData().getString("data"), JsonArray.class);
                         for(int i = 0, len = data_arr.size(); i < len; i++) {
                             JsonObject obj = data_arr.get(i).getAsJsonObject();
                             if(obj.has("filename")) {
@@ -212,15 +252,9 @@ public class AsyncContextRunnable implements Runnable {
                                         .setIsFormField(false)
                                         .build();
                                 fileItemList.add(fileItem);
-                            } else {
-                                Path file_path = Paths.get(obj.get("file_path").getAsString());
-                                try ( FileInputStream fis = new FileInputStream(file_path.toString()) ) {
-                                    String key = obj.get("name").getAsString();
-                                    String value = new String(fis.readAllBytes(), StandardCharsets.UTF_8);
-                                    params.put(key, value);
-                                } catch (Exception e) {
-                                    e.printStackTrace();
-                                }
+                            } else if(obj.has("value")) {
+                                // 文字欄位已由 AsyncReadListener 保留於記憶體中
+                                params.put(obj.get("name").getAsString(), obj.get("value").getAsString());
                             }
                         }
                         if(fileItemList.isEmpty()) {
@@ -229,22 +263,93 @@ public class AsyncContextRunnable implements Runnable {
                             webAppStartup(params, fileItemList);
                         }
                     }
+                    // 超過上傳限制
+                    if("too_large".equalsIgnoreCase(status)) {
+                        response413(new Handler(){
+                            @Override
+                            public void handleMessage(Message m) {
+                                super.handleMessage(m);
+                                requestContext.complete();
+                            }
+                        });
+                    }
+                    // 格式錯誤或不完整的 multipart 請求
+                    if("fail".equalsIgnoreCase(status)) {
+                        response400(new Handler(){
+                            @Override
+                            public void handleMessage(Message m) {
+                                super.handleMessage(m);
+                                requestContext.complete();
+                            }
+                        });
+                    }
                 }
-            }));
+            });
+            String upload_id = params.get("upload_id");
+            if(null != upload_id && !upload_id.isEmpty()) {
+                long content_length = requestContext.getHttpRequest().getContentLengthLong();
+                asyncReadListener.setUploadProgress(UploadProgressServiceStatic.getInstance().register(upload_id, content_length));
+            }
+            asyncReadListener.setTempFileScope(requestContext.getTempFileScope());
+            servletInputStream.setReadListener(asyncReadListener);
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
-    public String getRequestTextContent() {
-        String str = null;
+    /**
+     * 以 AsyncBodyReadListener 非同步讀取 JSON, XML, YAML, EDN, text/plain 等請求內容，
+     * 讀取期間不佔用 ThreadPool 的執行緒，全部讀取完成後才交回 ThreadPool 由 WebAppServiceExecutor 處理，
+     * Handler 取得請求內容時不會再阻塞
+     */
+    private void parse_text_body() {
+        LinkedHashMap<String, String> params = parse_params();
         try {
-            BufferedInputStream bis = new BufferedInputStream(asyncContext.getRequest().getInputStream());
-            str = new String(bis.readAllBytes(), StandardCharsets.UTF_8);
+            UploadLimit uploadLimit = WebAppServicePoolStatic.getInstance().getUploadLimit(requestContext);
+            RequestBody requestBody = RequestBody.create(TempFileServiceStatic.getInstance().getMemoryThreshold(), requestContext.getTempFileScope());
+            ServletInputStream servletInputStream = requestContext.getHttpRequest().getInputStream();
+            servletInputStream.setReadListener(new AsyncBodyReadListener(servletInputStream, requestBody, uploadLimit, new Handler(){
+                @Override
+                public void handleMessage(Message m) {
+                    super.handleMessage(m);
+                    String status = m.getData().getString("status");
+                    if("done".equalsIgnoreCase(status)) {
+                        requestContext.setRequestBody(requestBody);
+                        // onAllDataRead 由容器執行緒呼叫，Handler 交回 ThreadPool 執行，避免阻塞的操作佔用容器執行緒
+                        if(!ThreadPoolStatic.tryExecute(() -> webAppStartup(params, null))) {
+                            rejectRequest();
+                        }
+                    }
+                    // 超過上傳限制
+                    if("too_large".equalsIgnoreCase(status)) {
+                        response413(new Handler(){
+                            @Override
+                            public void handleMessage(Message m) {
+                                super.handleMessage(m);
+                                requestContext.complete();
+                            }
+                        });
+                    }
+                    // 讀取過程發生錯誤（例如用戶端中斷連線）
+                    if("fail".equalsIgnoreCase(status)) {
+                        response400(new Handler(){
+                            @Override
+                            public void handleMessage(Message m) {
+                                super.handleMessage(m);
+                                requestContext.complete();
+                            }
+                        });
+                    }
+                }
+            }));
         } catch (Exception e) {
             e.printStackTrace();
         }
-        return str;
+    }
+
+    // 經由 AsyncActionContext 的 RequestBody 讀取，Handler 之後仍可再次取得請求內容
+    public String getRequestTextContent() {
+        return requestContext.getRequestTextContent();
     }
 
     // parse application/x-www-form-urlencoded
@@ -274,7 +379,7 @@ public class AsyncContextRunnable implements Runnable {
                     for(String str : values) {
                         arr.add(str);
                     }
-                    params.put(key, new Gson().toJson(arr));
+                    params.put(key, GsonServiceStatic.getInstance().getDefault().toJson(arr));
                 } else {
                     String value = values[0];
                     params.put(key, value);
@@ -318,7 +423,7 @@ public class AsyncContextRunnable implements Runnable {
         String file_content_type = "application/octet-stream";
         {
             try {
-                file_content_type = new Tika().detect(file);
+                file_content_type = MimeTypeServiceStatic.getInstance().detect(file);
             } catch (Exception e) {
                 e.printStackTrace();
             }
@@ -350,6 +455,19 @@ public class AsyncContextRunnable implements Runnable {
         }
     }
 
+    // return payload too large，並要求前端關閉連線以停止傳送剩餘的內容
+    private void response413(Handler handler) {
+        try {
+            requestContext.getHttpResponse().setHeader("Connection", "close");
+            requestContext.getHttpResponse().sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+            if(null != handler) {
+                handler.obtainMessage().sendToTarget();
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
     public static class Builder {
 
         private ServletContext servletContext;
@@ -1,6 +1,6 @@
 package framework.web.servlet;
 
-import framework.file.FileFinder;
+import framework.file.TempFileServiceStatic;
 import framework.thread.ThreadPoolStatic;
 import framework.web.runnable.AsyncContextRunnable;
 import jakarta.servlet.AsyncContext;
@@ -9,13 +9,8 @@ import jakarta.servlet.http.HttpServlet;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 
-import java.io.File;
 import java.lang.ref.WeakReference;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.DirectoryStream;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.sql.Driver;
 import java.sql.DriverManager;
 import java.util.Enumeration;
@@ -28,22 +23,9 @@ public class WebAppController extends HttpServlet {
     @Override
     public void init() throws ServletException {
         super.init();
-        // 刪除既有暫存檔
+        // 刪除既有暫存檔，執行期間的孤兒暫存檔由 TempFileService 的 sweeper 清除
         {
-            File app_dir = new FileFinder.Builder().build().find("WEB-INF").getParentFile();
-            String app_name = app_dir.getName();
-            File app_temp_dir = new FileFinder.Builder().build().find("WebAppFiles");
-            String dir_slash = System.getProperty("file.separator");
-            Path temp_file_dir = Paths.get(app_temp_dir + dir_slash + app_name + dir_slash + "temp");
-            if (temp_file_dir.toFile().exists()) {
-                try (DirectoryStream<Path> stream = Files.newDirectoryStream(temp_file_dir)) {
-                    for (Path _path : stream) {
-                        _path.toFile().delete();
-                    }
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-            }
+            TempFileServiceStatic.getInstance().clear();
         }
     }
 
@@ -104,7 +86,10 @@ public class WebAppController extends HttpServlet {
                 .setServletConfig( new WeakReference<>( getServletConfig() ).get() )
                 .setAsyncContext( new WeakReference<>( asyncContext ).get() )
                 .build();
-        ThreadPoolStatic.execute(asyncContextRunnable);
+        // ThreadPool 滿載時以 503 + Retry-After 回應，避免 AsyncContext 因 setTimeout(0) 永遠不會結束
+        if(!ThreadPoolStatic.tryExecute(asyncContextRunnable)) {
+            asyncContextRunnable.rejectRequest();
+        }
     }
 
     // 內容編碼設定
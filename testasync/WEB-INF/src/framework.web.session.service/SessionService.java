@@ -1,7 +1,7 @@
 package framework.web.session.service;
 
-import com.google.gson.Gson;
 import com.google.gson.JsonObject;
+import framework.text.GsonServiceStatic;
 import framework.web.session.context.UserContext;
 import framework.web.session.pattern.UserMap;
 import jakarta.servlet.http.HttpSession;
@@ -60,14 +60,14 @@ public abstract class SessionService {
 
     public void setUserContext(HttpSession session, UserContext userContext) {
         if(null == userContext) return;
-        session.setAttribute(userContextTag, new Gson().toJson(userContext.toJsonObject()));
+        session.setAttribute(userContextTag, GsonServiceStatic.getInstance().getDefault().toJson(userContext.toJsonObject()));
     }
 
     public UserContext getUserContext(HttpSession session) {
         if(null == session.getAttribute(userContextTag)) return null;
         String tmp = session.getAttribute(userContextTag).toString();
         if(null == tmp || tmp.length() == 0) return null;
-        JsonObject obj = new Gson().fromJson(tmp, JsonObject.class);
+        JsonObject obj = GsonServiceStatic.getInstance().getDefault().fromJson(tmp, JsonObject.class);
         // 設定預設值
         String data_id = null;
         String account = null;